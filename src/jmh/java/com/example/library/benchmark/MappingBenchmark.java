@@ -0,0 +1,79 @@
+package com.example.library.benchmark;
+
+import com.example.library.api.dto.BookDTO;
+import com.example.library.api.dto.LoanDTO;
+import com.example.library.api.mapper.BookMapper;
+import com.example.library.api.mapper.LoanMapper;
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Mapping done by BookController.find and LoanController.find for one page of results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+    @Param({"20", "100"})
+    int pageSize;
+
+    BookMapper bookMapper = Mappers.getMapper(BookMapper.class);
+    LoanMapper loanMapper = Mappers.getMapper(LoanMapper.class);
+
+    Pageable pageRequest;
+    Page<Book> books;
+    Page<Loan> loans;
+
+    @Setup
+    public void setup() {
+        pageRequest = PageRequest.of(0, pageSize);
+        List<Book> bookList = new ArrayList<>();
+        List<Loan> loanList = new ArrayList<>();
+        for (long i = 0; i < pageSize; i++) {
+            Book book = Book.builder().id(i).title("Title " + i).author("Author " + i).isbn("isbn-" + i).build();
+            bookList.add(book);
+            loanList.add(Loan.builder()
+                    .id(i)
+                    .customer("customer " + i)
+                    .customerEmail("customer" + i + "@email.com")
+                    .book(book)
+                    .loanDate(LocalDate.now())
+                    .build());
+        }
+        books = new PageImpl<>(bookList, pageRequest, 10_000);
+        loans = new PageImpl<>(loanList, pageRequest, 10_000);
+    }
+
+    @Benchmark
+    public Page<BookDTO> bookControllerFind() {
+        List<BookDTO> list = books.getContent()
+                .stream()
+                .map(bookMapper::toDto)
+                .collect(Collectors.toList());
+        return new PageImpl<>(list, pageRequest, books.getTotalElements());
+    }
+
+    @Benchmark
+    public Page<LoanDTO> loanControllerFind() {
+        List<LoanDTO> list = loans.getContent()
+                .stream()
+                .map(loanMapper::toDto)
+                .collect(Collectors.toList());
+        return new PageImpl<>(list, pageRequest, loans.getTotalElements());
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.library.benchmark;
+
+import com.example.library.api.dto.BookDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the Page&lt;BookDTO&gt; returned by GET /api/books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageSerializationBenchmark {
+    @Param({"20", "100"})
+    int pageSize;
+
+    ObjectMapper objectMapper;
+    Page<BookDTO> page;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        List<BookDTO> list = new ArrayList<>();
+        for (long i = 0; i < pageSize; i++) {
+            list.add(BookDTO.builder().id(i).title("Title " + i).author("Author " + i).isbn("isbn-" + i).build());
+        }
+        page = new PageImpl<>(list, PageRequest.of(0, pageSize), 10_000);
+    }
+
+    @Benchmark
+    public byte[] serializeBookPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
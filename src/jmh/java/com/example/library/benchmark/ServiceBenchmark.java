@@ -0,0 +1,105 @@
+package com.example.library.benchmark;
+
+import com.example.library.LibraryApiApplication;
+import com.example.library.model.entity.Book;
+import com.example.library.service.BookService;
+import com.example.library.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BookServiceImpl.find and LoanServiceImpl.save against an embedded H2 seeded with
+ * {@code books} books, each with {@code loansPerBook} returned loans of history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+    private static final int BATCH_SIZE = 1_000;
+
+    @Param({"100000"})
+    int books;
+
+    @Param({"3"})
+    int loansPerBook;
+
+    ConfigurableApplicationContext context;
+    JdbcTemplate jdbcTemplate;
+    BookService bookService;
+    LoanService loanService;
+
+    Book filter;
+    PageRequest pageRequest;
+    int nextBook;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(LibraryApiApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                        "spring.boot.admin.client.enabled=false",
+                        "logging.file=")
+                .run();
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        bookService = context.getBean(BookService.class);
+        loanService = context.getBean(LoanService.class);
+
+        seed();
+
+        filter = Book.builder().title("title 4").build();
+        pageRequest = PageRequest.of(0, 20);
+    }
+
+    private void seed() {
+        List<Object[]> bookRows = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < books; i++) {
+            bookRows.add(new Object[]{"Title " + i, "Author " + (i % 5_000), "isbn-" + i});
+            if (bookRows.size() == BATCH_SIZE) {
+                jdbcTemplate.batchUpdate("insert into book (title, author, isbn) values (?, ?, ?)", bookRows);
+                bookRows.clear();
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into book (title, author, isbn) values (?, ?, ?)", bookRows);
+
+        for (int n = 0; n < loansPerBook; n++) {
+            Date loanDate = Date.valueOf(LocalDate.now().minusDays(30L * (n + 1)));
+            jdbcTemplate.update("insert into loan (customer, customer_email, id_book, loan_date, returned)" +
+                    " select concat('customer ', id), concat('customer', id, '@email.com'), id, ?, true from book", loanDate);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void returnAllLoans() {
+        jdbcTemplate.update("update loan set returned = true where returned = false");
+        nextBook = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Book> bookServiceFind() {
+        return bookService.find(filter, pageRequest);
+    }
+
+    @Benchmark
+    public Long loanServiceCheckout() {
+        return loanService.checkout("isbn-" + nextBook++, "customer", "customer@email.com");
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.library.benchmark;
+
+import com.example.library.api.dto.BookSuggestionDTO;
+import com.example.library.model.entity.Book;
+import com.example.library.service.search.BookSearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup and patch cost of the suggest index behind GET /api/books/suggest.
+ * Setup fails when the index (search postings plus suggest trie) needs more than maxBytesPerBook.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class SuggestBenchmark {
+    private static final String[] SYLLABLES = {"ba", "ca", "da", "fe", "ga", "li", "ma", "no", "pa", "ra", "sa", "te", "vi", "lo", "mu", "re"};
+
+    @Param({"10000", "100000"})
+    int books;
+
+    @Param("2048")
+    long maxBytesPerBook;
+
+    BookSearchIndex index;
+    String[] words;
+    String[] prefixes;
+    Random random;
+    int nextPrefix;
+    long nextId;
+
+    @Setup
+    public void setup() {
+        random = new Random(42);
+        words = new String[5_000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(2 + random.nextInt(3));
+        }
+
+        long before = usedHeap();
+        index = new BookSearchIndex(null);
+        for (nextId = 1; nextId <= books; nextId++) {
+            index.index(book(nextId));
+        }
+        long footprint = usedHeap() - before;
+        System.out.printf("%nSuggest index: %d books, %d bytes/book%n", books, footprint / books);
+        if (footprint / books > maxBytesPerBook) {
+            throw new IllegalStateException("Index footprint above target: " + footprint / books + " bytes/book");
+        }
+
+        prefixes = new String[1_024];
+        for (int i = 0; i < prefixes.length; i++) {
+            String word = words[random.nextInt(words.length)];
+            prefixes[i] = word.substring(0, 1 + random.nextInt(word.length()));
+        }
+    }
+
+    @Benchmark
+    public List<BookSuggestionDTO> suggest() {
+        return index.suggest(prefixes[nextPrefix++ & (prefixes.length - 1)], BookSearchIndex.MAX_SUGGESTIONS);
+    }
+
+    @Benchmark
+    public void patch() {
+        Book book = book(1 + random.nextInt(books));
+        index.index(book);
+    }
+
+    private Book book(long id) {
+        StringBuilder title = new StringBuilder();
+        int length = 1 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            title.append(i == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+        }
+        String author = words[random.nextInt(2_000)] + " " + words[random.nextInt(2_000)];
+        return Book.builder().id(id).title(title.toString()).author(author).isbn("isbn-" + id).build();
+    }
+
+    private String word(int syllables) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
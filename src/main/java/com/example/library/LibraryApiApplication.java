@@ -1,20 +1,25 @@
 package com.example.library;
 
-import org.modelmapper.ModelMapper;
+import com.example.library.api.mapper.BookMapper;
+import com.example.library.api.mapper.LoanMapper;
+import org.mapstruct.factory.Mappers;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableScheduling
 public class LibraryApiApplication {
 //	@Autowired
 //	private EmailService emailService;
 
 	@Bean
-	public ModelMapper mapper() {
-		return new ModelMapper();
+	public BookMapper bookMapper() {
+		return Mappers.getMapper(BookMapper.class);
+	}
+
+	@Bean
+	public LoanMapper loanMapper() {
+		return Mappers.getMapper(LoanMapper.class);
 	}
 
 //	@Bean
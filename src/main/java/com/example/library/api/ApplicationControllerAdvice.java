@@ -2,6 +2,7 @@ package com.example.library.api;
 
 import com.example.library.api.exception.ApiErrors;
 import com.example.library.exception.BusinessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -26,9 +27,15 @@ public class ApplicationControllerAdvice {
         return new ApiErrors(ex);
     }
 
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public ApiErrors handleOptimisticLockingFailure(OptimisticLockingFailureException ex) {
+        return new ApiErrors(ex);
+    }
+
     @ExceptionHandler(ResponseStatusException.class)
     @ResponseStatus
     public ResponseEntity handleResponseStatusException(ResponseStatusException ex) {
-        return new ResponseEntity(new ApiErrors(ex), ex.getStatus());
+        return new ResponseEntity(new ApiErrors(ex), ex.getResponseHeaders(), ex.getStatus());
     }
 }
@@ -22,4 +22,6 @@ public class BookDTO {
 
     @NotEmpty
     private String isbn;
+
+    private Boolean available;
 }
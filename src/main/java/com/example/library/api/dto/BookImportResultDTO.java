@@ -0,0 +1,26 @@
+package com.example.library.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookImportResultDTO {
+    public enum Status { CREATED, DUPLICATED, INVALID, FAILED }
+
+    private Integer line;
+
+    private String isbn;
+
+    private Status status;
+
+    private Long id;
+
+    private String message;
+}
@@ -0,0 +1,18 @@
+package com.example.library.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookSuggestionDTO {
+    private String text;
+
+    private String field;
+
+    private int books;
+}
@@ -15,4 +15,6 @@ public class LoanFilterDTO {
     private String isbn;
 
     private String customer;
+
+    private Boolean history;
 }
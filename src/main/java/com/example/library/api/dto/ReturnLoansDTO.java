@@ -0,0 +1,24 @@
+package com.example.library.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Size;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReturnLoansDTO {
+    @Builder.Default
+    @Size(max = 1000, message = "At most 1000 loan ids per request")
+    private List<Long> ids = new ArrayList<>();
+
+    @Builder.Default
+    @Size(max = 1000, message = "At most 1000 ISBNs per request")
+    private List<String> isbns = new ArrayList<>();
+}
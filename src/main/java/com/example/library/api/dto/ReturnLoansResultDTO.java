@@ -0,0 +1,30 @@
+package com.example.library.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReturnLoansResultDTO {
+    @Builder.Default
+    private List<Long> returned = new ArrayList<>();
+
+    @Builder.Default
+    private List<Long> unknownIds = new ArrayList<>();
+
+    @Builder.Default
+    private List<Long> alreadyReturnedIds = new ArrayList<>();
+
+    @Builder.Default
+    private List<String> unknownIsbns = new ArrayList<>();
+
+    @Builder.Default
+    private List<String> notLentIsbns = new ArrayList<>();
+}
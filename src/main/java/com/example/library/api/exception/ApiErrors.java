@@ -1,6 +1,7 @@
 package com.example.library.api.exception;
 
 import com.example.library.exception.BusinessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -20,6 +21,10 @@ public class ApiErrors {
         this.errors = Arrays.asList(ex.getMessage());
     }
 
+    public ApiErrors(OptimisticLockingFailureException ex) {
+        this.errors = Arrays.asList("Recurso alterado por outra requisição.");
+    }
+
     public ApiErrors(ResponseStatusException ex) {
         this.errors = Arrays.asList(ex.getReason());
     }
@@ -0,0 +1,106 @@
+package com.example.library.api.limit;
+
+import com.example.library.service.LibraryMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit adjusted by AIMD over windows of at least {@link #WINDOW_MIN_SAMPLES} samples and
+ * {@link #WINDOW_NANOS}: the limit shrinks by {@link #BACKOFF_RATIO} when a window saw errors or an average latency
+ * above {@link #LATENCY_TOLERANCE} times the baseline, and grows by one when the window used at least half of it.
+ * The baseline follows faster windows at once and slower ones only slowly.
+ */
+public class AdaptiveLimiter {
+    static final double BACKOFF_RATIO = 0.9;
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double BASELINE_DRIFT = 0.01;
+    static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final int WINDOW_MIN_SAMPLES = 10;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LibraryMetrics metrics;
+    private volatile double limit;
+
+    private double baselineNanos = Double.NaN;
+    private long windowStart;
+    private int samples;
+    private long totalNanos;
+    private int maxInflight;
+    private boolean failed;
+
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, LibraryMetrics metrics) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.metrics = metrics;
+        metrics.limiterGauge("limit", name, this, AdaptiveLimiter::getLimit);
+        metrics.limiterGauge("inflight", name, this, AdaptiveLimiter::getInflight);
+        metrics.limiterGauge("baseline", name, this, l -> l.baselineNanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public boolean tryAcquire() {
+        for (;;) {
+            int current = inflight.get();
+            if (current >= getLimit()) {
+                metrics.limiterRejected(name);
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long startNanos, boolean dropped) {
+        long now = System.nanoTime();
+        sample(now, now - startNanos, dropped, inflight.getAndDecrement());
+    }
+
+    synchronized void sample(long now, long latencyNanos, boolean dropped, int concurrency) {
+        if (samples == 0) {
+            windowStart = now;
+        }
+        samples++;
+        totalNanos += latencyNanos;
+        maxInflight = Math.max(maxInflight, concurrency);
+        failed |= dropped;
+        if (samples < WINDOW_MIN_SAMPLES || now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+
+        double average = (double) totalNanos / samples;
+        if (Double.isNaN(baselineNanos) || average < baselineNanos) {
+            baselineNanos = average;
+        } else {
+            baselineNanos += (average - baselineNanos) * BASELINE_DRIFT;
+        }
+
+        if (failed || average > baselineNanos * LATENCY_TOLERANCE) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else if (maxInflight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+
+        samples = 0;
+        totalNanos = 0;
+        maxInflight = 0;
+        failed = false;
+    }
+}
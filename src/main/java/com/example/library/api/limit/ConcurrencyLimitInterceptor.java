@@ -0,0 +1,40 @@
+package com.example.library.api.limit;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+@RequiredArgsConstructor
+public class ConcurrencyLimitInterceptor implements HandlerInterceptor {
+    private final AdaptiveLimiter limiter;
+    private final Set<String> methods;
+    private final long retryAfterSeconds;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!methods.contains(request.getMethod())) {
+            return true;
+        }
+        if (!limiter.tryAcquire()) {
+            throw new LoadSheddingException(retryAfterSeconds);
+        }
+        request.setAttribute(startAttribute(), System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(startAttribute());
+        if (start != null) {
+            request.removeAttribute(startAttribute());
+            limiter.release((Long) start, ex != null || response.getStatus() >= 500);
+        }
+    }
+
+    private String startAttribute() {
+        return ConcurrencyLimitInterceptor.class.getName() + "." + limiter.getName();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.library.api.limit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class LoadSheddingException extends ResponseStatusException {
+    private final long retryAfterSeconds;
+
+    public LoadSheddingException(long retryAfterSeconds) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "Servidor sobrecarregado, tente novamente em instantes.");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getResponseHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        return headers;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.library.api.mapper;
+
+import com.example.library.api.dto.BookDTO;
+import com.example.library.model.entity.Book;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+@Mapper
+public interface BookMapper {
+    @Mapping(target = "available", expression = "java(book.getActiveLoanId() == null)")
+    BookDTO toDto(Book book);
+
+    @Mapping(target = "loans", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "activeLoanId", ignore = true)
+    @Mapping(target = "updatedAt", ignore = true)
+    Book toEntity(BookDTO dto);
+}
@@ -0,0 +1,13 @@
+package com.example.library.api.mapper;
+
+import com.example.library.api.dto.LoanDTO;
+import com.example.library.model.entity.Loan;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+@Mapper(uses = BookMapper.class)
+public interface LoanMapper {
+    @Mapping(target = "isbn", ignore = true)
+    @Mapping(target = "email", source = "customerEmail")
+    LoanDTO toDto(Loan loan);
+}
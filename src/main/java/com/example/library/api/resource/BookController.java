@@ -1,27 +1,53 @@
 package com.example.library.api.resource;
 
 import com.example.library.api.dto.BookDTO;
+import com.example.library.api.dto.BookImportResultDTO;
+import com.example.library.api.dto.BookSuggestionDTO;
 import com.example.library.api.dto.LoanDTO;
+import com.example.library.api.dto.PageDTO;
+import com.example.library.api.mapper.BookMapper;
+import com.example.library.api.mapper.LoanMapper;
 import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
+import com.example.library.model.repository.BookVersion;
 import com.example.library.service.BookService;
+import com.example.library.service.LibraryMetrics;
 import com.example.library.service.LoanService;
+import com.example.library.service.search.BookSearchIndex;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @RestController
@@ -30,45 +56,197 @@ import java.util.stream.Collectors;
 @Api("Book API")
 @Slf4j
 public class BookController {
+    private static final String[] CSV_HEADER = {"id", "title", "author", "isbn", "available"};
+
     private final BookService service;
     private final LoanService loanService;
-    private final ModelMapper mapper;
+    private final BookMapper mapper;
+    private final LoanMapper loanMapper;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final LibraryMetrics metrics;
+
+    @Value("${application.books.import.chunk-size:500}")
+    private int importChunkSize;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     @ApiOperation("Create a book")
     public BookDTO create(@RequestBody @Valid BookDTO dto) {
         log.info("Creating a book for a isbn: {}", dto.getIsbn());
-        Book entity = mapper.map(dto, Book.class);
+        Book entity = mapper.toEntity(dto);
         entity = service.save(entity);
-        return mapper.map(entity, BookDTO.class);
+        return mapper.toDto(entity);
+    }
+
+    @PostMapping(value = "import", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @ApiOperation("Import books from a JSON array or NDJSON stream")
+    public List<BookImportResultDTO> importBooks(InputStream content) throws IOException {
+        log.info("Importing books");
+        List<BookImportResultDTO> report = new ArrayList<>();
+        List<Book> chunk = new ArrayList<>(importChunkSize);
+        List<Integer> chunkLines = new ArrayList<>(importChunkSize);
+        int line = 0;
+
+        try (MappingIterator<BookDTO> rows = objectMapper.readerFor(BookDTO.class).readValues(content)) {
+            while (rows.hasNextValue()) {
+                BookDTO dto = rows.nextValue();
+                line++;
+
+                Set<ConstraintViolation<BookDTO>> violations = validator.validate(dto);
+                if (!violations.isEmpty()) {
+                    report.add(BookImportResultDTO.builder()
+                            .line(line)
+                            .isbn(dto.getIsbn())
+                            .status(BookImportResultDTO.Status.INVALID)
+                            .message(violations.stream()
+                                    .map(v -> v.getPropertyPath() + " " + v.getMessage())
+                                    .collect(Collectors.joining(", ")))
+                            .build());
+                    continue;
+                }
+
+                chunk.add(mapper.toEntity(dto));
+                chunkLines.add(line);
+                if (chunk.size() == importChunkSize) {
+                    report.addAll(importChunk(chunk, chunkLines));
+                    chunk.clear();
+                    chunkLines.clear();
+                }
+            }
+        } catch (JsonProcessingException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Conteúdo inválido após a linha %d.", line));
+        }
+
+        if (!chunk.isEmpty()) {
+            report.addAll(importChunk(chunk, chunkLines));
+        }
+        report.sort(Comparator.comparing(BookImportResultDTO::getLine));
+        report.stream()
+                .collect(Collectors.groupingBy(BookImportResultDTO::getStatus, Collectors.counting()))
+                .forEach((status, count) -> metrics.booksImported(status.name(), count));
+        return report;
+    }
+
+    private List<BookImportResultDTO> importChunk(List<Book> chunk, List<Integer> lines) {
+        List<BookImportResultDTO> results;
+        try {
+            results = service.importBooks(chunk);
+        } catch (DataIntegrityViolationException ex) {
+            log.warn("Failed to import a chunk of {} books", chunk.size(), ex);
+            results = chunk.stream()
+                    .map(book -> BookImportResultDTO.builder()
+                            .isbn(book.getIsbn())
+                            .status(BookImportResultDTO.Status.FAILED)
+                            .message("Falha ao gravar o lote.")
+                            .build())
+                    .collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).setLine(lines.get(i));
+        }
+        return results;
     }
 
     @GetMapping("{id}")
     @ApiOperation("Obtains a book details by id")
-    public BookDTO get(@PathVariable Long id) {
+    public ResponseEntity<BookDTO> get(@PathVariable Long id, WebRequest request) {
         log.info("Obtaining details for a book id: {}", id);
-        return service
-                .getById(id)
-                .map(book -> mapper.map(book, BookDTO.class))
+        BookVersion current = service.getVersion(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        String tag = VersionTag.of(current.getVersion());
+        if (VersionTag.notModified(request, tag, current.getUpdatedAt())) {
+            return null;
+        }
+        Book book = service.getById(id)
+                .filter(cached -> Objects.equals(cached.getVersion(), current.getVersion()))
+                .or(() -> service.refresh(id))
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        return ResponseEntity.ok().eTag(tag).body(mapper.toDto(book));
     }
 
     @GetMapping
     @ApiOperation("Find books by params")
     public Page<BookDTO> find(BookDTO dto, Pageable pageRequest) {
         log.info("Find books by params");
-        Book filter = mapper.map(dto, Book.class);
+        Book filter = mapper.toEntity(dto);
 
         Page<Book> result = service.find(filter, pageRequest);
         List<BookDTO> lista = result.getContent()
                 .stream()
-                .map(entity -> mapper.map(entity, BookDTO.class))
+                .map(mapper::toDto)
                 .collect(Collectors.toList());
 
         return new PageImpl<BookDTO>(lista, pageRequest, result.getTotalElements());
     }
 
+    @GetMapping(produces = MediaType.APPLICATION_CBOR_VALUE)
+    @ApiOperation("Find books by params, as a compact CBOR page")
+    public PageDTO<BookDTO> findCompact(BookDTO dto, Pageable pageRequest) {
+        Page<BookDTO> page = find(dto, pageRequest);
+        return PageDTO.<BookDTO>builder().content(page.getContent()).total(page.getTotalElements()).build();
+    }
+
+    @GetMapping(params = {"q", "!cursor"})
+    @ApiOperation("Full-text search over title and author, ranked by relevance")
+    public Page<BookDTO> search(@RequestParam String q, Pageable pageRequest) {
+        log.info("Searching books");
+        Page<Book> result = service.search(q, pageRequest);
+        List<BookDTO> lista = result.getContent()
+                .stream()
+                .map(mapper::toDto)
+                .collect(Collectors.toList());
+
+        return new PageImpl<BookDTO>(lista, pageRequest, result.getTotalElements());
+    }
+
+    @GetMapping("export")
+    @ApiOperation("Streams every book matching the params as NDJSON or CSV")
+    public void export(BookDTO dto, @RequestParam(defaultValue = ExportWriter.NDJSON) String format,
+                       HttpServletResponse response) throws IOException {
+        log.info("Exporting books");
+        Book filter = mapper.toEntity(dto);
+        try (ExportWriter<BookDTO> writer = ExportWriter.isCsv(format)
+                ? ExportWriter.csv(response, "books.csv", CSV_HEADER, BookController::csvRow)
+                : ExportWriter.ndjson(response, objectMapper, BookDTO.class)) {
+            service.export(filter, book -> writer.accept(mapper.toDto(book)));
+        }
+    }
+
+    private static Object[] csvRow(BookDTO book) {
+        return new Object[]{book.getId(), book.getTitle(), book.getAuthor(), book.getIsbn(), book.getAvailable()};
+    }
+
+    @GetMapping("suggest")
+    @ApiOperation("Suggests title and author completions for a prefix")
+    public List<BookSuggestionDTO> suggest(@RequestParam String prefix,
+                                           @RequestParam(defaultValue = "10") int size) {
+        return service.suggest(prefix, Math.max(1, Math.min(size, BookSearchIndex.MAX_SUGGESTIONS)));
+    }
+
+    @GetMapping(params = "cursor")
+    @ApiOperation("Find books by params, seeking from a cursor")
+    public PageDTO<BookDTO> findByCursor(BookDTO dto, @RequestParam String cursor,
+                                         @RequestParam(defaultValue = "20") int size) {
+        log.info("Find books by params from cursor");
+        Book filter = mapper.toEntity(dto);
+        CursorToken from = CursorToken.decode(cursor);
+
+        Slice<Book> result = service.findAfter(filter, from.getKey(), from.getId(), CursorToken.limit(size));
+        List<BookDTO> lista = result.getContent()
+                .stream()
+                .map(mapper::toDto)
+                .collect(Collectors.toList());
+
+        String next = null;
+        if (result.hasNext()) {
+            Book last = result.getContent().get(result.getNumberOfElements() - 1);
+            next = CursorToken.encode(last.getId(), last.getIsbn());
+        }
+        return PageDTO.<BookDTO>builder().content(lista).cursor(next).build();
+    }
+
     @DeleteMapping("{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ApiOperation("Delete a book by id")
@@ -85,33 +263,56 @@ public class BookController {
 
     @PutMapping("{id}")
     @ApiOperation("Update a book")
-    public BookDTO update(@PathVariable Long id, @RequestBody @Valid BookDTO dto) {
+    public ResponseEntity<BookDTO> update(@PathVariable Long id, @RequestBody @Valid BookDTO dto,
+                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         log.info("Updating book of id: {}", id);
         return service
-                .getById(id)
-                .map(book -> {
+                .update(id, book -> {
+                    VersionTag.check(ifMatch, book.getVersion());
                     book.setAuthor(dto.getAuthor());
                     book.setTitle(dto.getTitle());
-                    book = service.update(book);
-                    return mapper.map(book, BookDTO.class);
                 })
+                .map(book -> ResponseEntity.ok().eTag(VersionTag.of(book.getVersion())).body(mapper.toDto(book)))
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
     }
 
     @GetMapping("{id}/loans")
-    public Page<LoanDTO> loansByBook(@PathVariable Long id, Pageable pageRequest) {
+    public Page<LoanDTO> loansByBook(@PathVariable Long id, @RequestParam(defaultValue = "false") boolean history,
+                                     Pageable pageRequest, WebRequest request) {
+        BookVersion current = service.getVersion(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (VersionTag.notModified(request, VersionTag.of("loans", current.getVersion()), current.getUpdatedAt())) {
+            return null;
+        }
         Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        Page<Loan> result = loanService.getLoansByBook(book, pageRequest);
+        Page<Loan> result = loanService.getLoansByBook(book, history, pageRequest);
         List<LoanDTO> list = result.getContent()
                 .stream()
-                .map(loan -> {
-                    Book loanBook = loan.getBook();
-                    BookDTO bookDTO = mapper.map(loanBook, BookDTO.class);
-                    LoanDTO loanDTO = mapper.map(loan, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-                })
+                .map(loanMapper::toDto)
                 .collect(Collectors.toList());
         return new PageImpl<LoanDTO>(list, pageRequest, result.getTotalElements());
     }
+
+    @GetMapping(value = "{id}/loans", params = "cursor")
+    public PageDTO<LoanDTO> loansByBookByCursor(@PathVariable Long id, @RequestParam String cursor,
+                                                @RequestParam(defaultValue = "20") int size,
+                                                @RequestParam(defaultValue = "false") boolean history, WebRequest request) {
+        BookVersion current = service.getVersion(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (VersionTag.notModified(request, VersionTag.of("loans", current.getVersion()), current.getUpdatedAt())) {
+            return null;
+        }
+        Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        CursorToken from = CursorToken.decode(cursor);
+
+        Slice<Loan> result = loanService.getLoansByBookAfter(book, history, from.getId(), CursorToken.limit(size));
+        List<LoanDTO> list = result.getContent()
+                .stream()
+                .map(loanMapper::toDto)
+                .collect(Collectors.toList());
+
+        String next = null;
+        if (result.hasNext()) {
+            next = CursorToken.encode(list.get(list.size() - 1).getId(), null);
+        }
+        return PageDTO.<LoanDTO>builder().content(list).cursor(next).build();
+    }
 }
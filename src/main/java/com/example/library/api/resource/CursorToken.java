@@ -0,0 +1,40 @@
+package com.example.library.api.resource;
+
+import lombok.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+@Value
+class CursorToken {
+    static final CursorToken FIRST = new CursorToken(0L, "");
+    static final int MAX_SIZE = 2000;
+
+    Long id;
+
+    String key;
+
+    static int limit(int size) {
+        return Math.max(1, Math.min(size, MAX_SIZE));
+    }
+
+    static String encode(Long id, String key) {
+        String raw = id + ":" + (key == null ? "" : key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static CursorToken decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return FIRST;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new CursorToken(Long.valueOf(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor inválido.");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.library.api.resource;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+abstract class ExportWriter<T> implements Consumer<T>, Closeable {
+    static final String NDJSON = "ndjson";
+    static final String CSV = "csv";
+    static final String TEXT_CSV_VALUE = "text/csv";
+
+    static boolean isCsv(String format) {
+        if (CSV.equalsIgnoreCase(format)) {
+            return true;
+        }
+        if (NDJSON.equalsIgnoreCase(format)) {
+            return false;
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Formato de exportação inválido.");
+    }
+
+    static <T> ExportWriter<T> ndjson(HttpServletResponse response, ObjectMapper objectMapper, Class<T> type)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        ObjectWriter writer = objectMapper.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return new ExportWriter<T>() {
+            @Override
+            void write(T value) throws IOException {
+                writer.writeValue(generator, value);
+                generator.writeRaw('\n');
+            }
+
+            @Override
+            public void close() throws IOException {
+                generator.close();
+            }
+        };
+    }
+
+    static <T> ExportWriter<T> csv(HttpServletResponse response, String filename, String[] header,
+                                   Function<T, Object[]> row) throws IOException {
+        response.setContentType(TEXT_CSV_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        Writer out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        writeCsvLine(out, header);
+        return new ExportWriter<T>() {
+            @Override
+            void write(T value) throws IOException {
+                writeCsvLine(out, row.apply(value));
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    abstract void write(T value) throws IOException;
+
+    @Override
+    public void accept(T value) {
+        try {
+            write(value);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeCsvLine(Writer out, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values[i] == null ? "" : values[i].toString();
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+        }
+        out.write("\r\n");
+    }
+}
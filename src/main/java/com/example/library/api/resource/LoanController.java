@@ -1,24 +1,33 @@
 package com.example.library.api.resource;
 
-import com.example.library.api.dto.BookDTO;
 import com.example.library.api.dto.LoanDTO;
 import com.example.library.api.dto.LoanFilterDTO;
+import com.example.library.api.dto.PageDTO;
+import com.example.library.api.dto.ReturnLoansDTO;
+import com.example.library.api.dto.ReturnLoansResultDTO;
 import com.example.library.api.dto.ReturnedLoanDTO;
-import com.example.library.model.entity.Book;
+import com.example.library.api.mapper.LoanMapper;
 import com.example.library.model.entity.Loan;
-import com.example.library.service.BookService;
 import com.example.library.service.LoanService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.NoArgsConstructor;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.time.LocalDate;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -26,49 +35,99 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/loans")
 @NoArgsConstructor
 public class LoanController {
+    private static final String[] CSV_HEADER = {"id", "customer", "email", "book_id", "isbn", "title", "author"};
+
     @Autowired
     private LoanService service;
 
     @Autowired
-    private BookService bookService;
+    private LoanMapper mapper;
 
     @Autowired
-    private ModelMapper mapper;
+    private ObjectMapper objectMapper;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public Long createLoan(@RequestBody LoanDTO dto) {
-        Book book = bookService.getBookByIsbn(dto.getIsbn())
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Livro não encontrado para o Isbn informado."));
-        Loan entity = Loan.builder().book(book).customer("").loanDate(LocalDate.now()).build();
-        entity = service.save(entity);
-        return entity.getId();
+        return service.checkout(dto.getIsbn(), dto.getCustomer(), dto.getEmail());
+    }
+
+    @GetMapping("{id}")
+    public ResponseEntity<LoanDTO> get(@PathVariable Long id, WebRequest request) {
+        Loan loan = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        String tag = VersionTag.of(loan.getVersion());
+        if (VersionTag.notModified(request, tag, loan.getUpdatedAt())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(tag).body(mapper.toDto(loan));
     }
 
     @PatchMapping("{id}")
-    public void returnLoan(@PathVariable Long id, @RequestBody ReturnedLoanDTO dto) {
+    public ResponseEntity<Void> returnLoan(@PathVariable Long id, @RequestBody ReturnedLoanDTO dto,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         Loan loan = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        loan.setReturned(dto.getReturned());
+        VersionTag.check(ifMatch, loan.getVersion());
+        loan.setReturned(Boolean.TRUE.equals(dto.getReturned()));
 
-        service.update(loan);
+        loan = service.update(loan);
+        return ResponseEntity.ok().eTag(VersionTag.of(loan.getVersion())).build();
+    }
+
+    @PatchMapping
+    public ReturnLoansResultDTO returnLoans(@RequestBody @Valid ReturnLoansDTO dto) {
+        List<Long> ids = dto.getIds() == null ? Collections.emptyList() : dto.getIds();
+        List<String> isbns = dto.getIsbns() == null ? Collections.emptyList() : dto.getIsbns();
+
+        return service.returnLoans(ids, isbns);
     }
 
     @GetMapping
     public Page<LoanDTO> find(LoanFilterDTO dto, Pageable pageRequest) {
-//        Loan filter = mapper.map(dto, Loan.class);
-
         Page<Loan> result = service.find(dto, pageRequest);
         List<LoanDTO> loans = result.getContent()
                 .stream()
-                .map(entity -> {
-                    Book book = entity.getBook();
-                    BookDTO bookDTO = mapper.map(book, BookDTO.class);
-                    LoanDTO loanDTO = mapper.map(entity, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-                })
+                .map(mapper::toDto)
                 .collect(Collectors.toList());
 
         return new PageImpl<LoanDTO>(loans, pageRequest, result.getTotalElements());
     }
+
+    @GetMapping(produces = MediaType.APPLICATION_CBOR_VALUE)
+    public PageDTO<LoanDTO> findCompact(LoanFilterDTO dto, Pageable pageRequest) {
+        Page<LoanDTO> page = find(dto, pageRequest);
+        return PageDTO.<LoanDTO>builder().content(page.getContent()).total(page.getTotalElements()).build();
+    }
+
+    @GetMapping("export")
+    public void export(LoanFilterDTO dto, @RequestParam(defaultValue = ExportWriter.NDJSON) String format,
+                       HttpServletResponse response) throws IOException {
+        try (ExportWriter<LoanDTO> writer = ExportWriter.isCsv(format)
+                ? ExportWriter.csv(response, "loans.csv", CSV_HEADER, LoanController::csvRow)
+                : ExportWriter.ndjson(response, objectMapper, LoanDTO.class)) {
+            service.export(dto, loan -> writer.accept(mapper.toDto(loan)));
+        }
+    }
+
+    private static Object[] csvRow(LoanDTO loan) {
+        return new Object[]{loan.getId(), loan.getCustomer(), loan.getEmail(),
+                loan.getBook().getId(), loan.getBook().getIsbn(), loan.getBook().getTitle(), loan.getBook().getAuthor()};
+    }
+
+    @GetMapping(params = "cursor")
+    public PageDTO<LoanDTO> findByCursor(LoanFilterDTO dto, @RequestParam String cursor,
+                                         @RequestParam(defaultValue = "20") int size) {
+        CursorToken from = CursorToken.decode(cursor);
+
+        Slice<Loan> result = service.findAfter(dto, from.getId(), CursorToken.limit(size));
+        List<LoanDTO> loans = result.getContent()
+                .stream()
+                .map(mapper::toDto)
+                .collect(Collectors.toList());
+
+        String next = null;
+        if (result.hasNext()) {
+            next = CursorToken.encode(loans.get(loans.size() - 1).getId(), null);
+        }
+        return PageDTO.<LoanDTO>builder().content(loans).cursor(next).build();
+    }
 }
@@ -0,0 +1,41 @@
+package com.example.library.api.resource;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+
+final class VersionTag {
+    private VersionTag() {
+    }
+
+    static String of(Long version) {
+        return "\"" + (version == null ? 0L : version) + "\"";
+    }
+
+    static String of(String scope, Long version) {
+        return "\"" + scope + "-" + (version == null ? 0L : version) + "\"";
+    }
+
+    static boolean notModified(WebRequest request, String tag, Instant lastModified) {
+        return request.checkNotModified(tag, lastModified == null ? -1 : lastModified.toEpochMilli());
+    }
+
+    static void check(String ifMatch, Long version) {
+        if (ifMatch == null || ifMatch.trim().isEmpty()) {
+            return;
+        }
+        String current = of(version);
+        for (String tag : ifMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(current)) {
+                return;
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Recurso alterado por outra requisição.");
+    }
+}
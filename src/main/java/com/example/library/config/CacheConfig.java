@@ -0,0 +1,61 @@
+package com.example.library.config;
+
+import com.example.library.model.entity.Book;
+import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+@EnableCaching
+@Configuration
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+    public static final String BOOKS = "books";
+    public static final String BOOKS_BY_ISBN = "booksByIsbn";
+
+    /**
+     * Caffeine caches that store books by value: the cache keeps its own copy of what is put and every read gets a
+     * fresh copy, so a caller editing the book it obtained never changes what other requests see.
+     */
+    @Bean
+    public CacheManager cacheManager(CacheProperties properties) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager() {
+            @Override
+            protected Cache adaptCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+                return new SnapshotCache(name, cache, isAllowNullValues());
+            }
+        };
+        String spec = properties.getCaffeine().getSpec();
+        if (StringUtils.hasText(spec)) {
+            cacheManager.setCacheSpecification(spec);
+        }
+        cacheManager.setCacheNames(properties.getCacheNames());
+        return cacheManager;
+    }
+
+    static final class SnapshotCache extends CaffeineCache {
+        SnapshotCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache, boolean allowNullValues) {
+            super(name, cache, allowNullValues);
+        }
+
+        @Override
+        protected Object toStoreValue(Object userValue) {
+            return super.toStoreValue(copy(userValue));
+        }
+
+        @Override
+        protected Object fromStoreValue(Object storeValue) {
+            return copy(super.fromStoreValue(storeValue));
+        }
+
+        private static Object copy(Object value) {
+            return value instanceof Book ? ((Book) value).toBuilder().build() : value;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.library.config;
+
+import com.example.library.service.LibraryMetrics;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+@ConditionalOnProperty(name = DataSourceConfig.REPLICA_URLS)
+public class DataSourceConfig {
+    public static final String REPLICA_URLS = "application.datasource.replica.urls";
+
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties, ObjectProvider<MeterRegistry> registry) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        pool.setPoolName(ReplicaRoutingDataSource.PRIMARY);
+        registry.ifAvailable(pool::setMetricRegistry);
+        return pool;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(
+            HikariDataSource primaryDataSource, DataSourceProperties properties, ObjectProvider<MeterRegistry> registry,
+            LibraryMetrics metrics,
+            @Value("${" + REPLICA_URLS + "}") List<String> urls,
+            @Value("${application.datasource.replica.pool-size:10}") int poolSize,
+            @Value("${application.datasource.replica.max-lag-ms:1000}") long maxLagMillis) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : urls) {
+            HikariDataSource pool = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .driverClassName(properties.determineDriverClassName())
+                    .url(url.trim())
+                    .username(properties.determineUsername())
+                    .password(properties.determinePassword())
+                    .build();
+            pool.setPoolName("replica-" + (replicas.size() + 1));
+            pool.setMaximumPoolSize(poolSize);
+            pool.setReadOnly(true);
+            registry.ifAvailable(pool::setMetricRegistry);
+            replicas.put(pool.getPoolName(), pool);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagMillis, metrics);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(
+            @Value("${application.datasource.replica.sticky-ms:${application.datasource.replica.max-lag-ms:1000}}") long stickyMillis) {
+        return new ReadYourWritesFilter(stickyMillis);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer releaseConnectionAfterTransaction() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.library.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+    public static final String ENABLED = "application.metrics.enabled";
+
+    @Bean
+    @ConditionalOnProperty(name = ENABLED, havingValue = "true", matchIfMissing = true)
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = ENABLED, havingValue = "false")
+    public MeterFilter denyLibraryMetrics() {
+        return MeterFilter.denyNameStartsWith("library.");
+    }
+}
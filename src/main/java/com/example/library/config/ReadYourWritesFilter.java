@@ -0,0 +1,60 @@
+package com.example.library.config;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Keeps a client on the primary for a while after one of its requests committed a write, through a cookie holding
+ * the time until which its reads must not go to a replica.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    static final String COOKIE = "primary-until";
+
+    private final long stickyMillis;
+
+    public ReadYourWritesFilter(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean pinned = pinnedUntil(request) > System.currentTimeMillis();
+        ReplicaRoutingDataSource.bind(pinned, () -> response.addCookie(cookie(System.currentTimeMillis() + stickyMillis)));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.unbind();
+        }
+    }
+
+    private Cookie cookie(long until) {
+        Cookie cookie = new Cookie(COOKIE, String.valueOf(until));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge((int) Math.max(1, (stickyMillis + 999) / 1000));
+        return cookie;
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
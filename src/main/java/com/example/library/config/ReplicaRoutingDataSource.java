@@ -0,0 +1,139 @@
+package com.example.library.config;
+
+import com.example.library.service.LibraryMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to a replica whose heartbeat lag is within the tolerance, everything else to the
+ * primary. A thread bound through {@link #bind} stays on the primary once it has committed a read-write transaction.
+ * Must be wrapped in a LazyConnectionDataSourceProxy, so the route is chosen after the transaction is set up.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    static final String PRIMARY = "primary";
+
+    private static final String WRITE_BEAT = "update replica_heartbeat set beat_at = ? where id = 1";
+    private static final String READ_BEAT = "select beat_at from replica_heartbeat where id = 1";
+    private static final ThreadLocal<Stickiness> STICKINESS = new ThreadLocal<>();
+
+    private final JdbcTemplate primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final LibraryMetrics metrics;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, long maxLagMillis,
+                                    LibraryMetrics metrics) {
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.primary = new JdbcTemplate(primary);
+        this.maxLagMillis = maxLagMillis;
+        this.metrics = metrics;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource, metrics)));
+    }
+
+    public static void bind(boolean pinned, Runnable onWrite) {
+        STICKINESS.set(new Stickiness(pinned, onWrite));
+    }
+
+    public static void unbind() {
+        STICKINESS.remove();
+    }
+
+    @Scheduled(initialDelayString = "${application.datasource.replica.heartbeat-ms:250}",
+            fixedDelayString = "${application.datasource.replica.heartbeat-ms:250}")
+    public void heartbeat() {
+        try {
+            primary.update(WRITE_BEAT, Timestamp.from(Instant.now()));
+        } catch (DataAccessException ex) {
+            log.warn("Failed to write the replica heartbeat", ex);
+        }
+        replicas.forEach(Replica::probe);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String route = route();
+        metrics.dataSourceRoute(route);
+        return route;
+    }
+
+    private String route() {
+        Stickiness stickiness = STICKINESS.get();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (stickiness != null && !stickiness.pinned && TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(stickiness);
+            }
+            return PRIMARY;
+        }
+        if (stickiness != null && stickiness.pinned) {
+            return PRIMARY;
+        }
+
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.lagMillis <= maxLagMillis) {
+                return replica.name;
+            }
+        }
+        return PRIMARY;
+    }
+
+    private static final class Stickiness implements TransactionSynchronization {
+        private final Runnable onWrite;
+        private boolean pinned;
+
+        Stickiness(boolean pinned, Runnable onWrite) {
+            this.pinned = pinned;
+            this.onWrite = onWrite;
+        }
+
+        @Override
+        public void afterCommit() {
+            if (!pinned) {
+                pinned = true;
+                onWrite.run();
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final JdbcTemplate jdbcTemplate;
+        private volatile long lagMillis = Long.MAX_VALUE;
+
+        Replica(String name, DataSource dataSource, LibraryMetrics metrics) {
+            this.name = name;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            metrics.replicaLag(name, this, r -> r.lagMillis == Long.MAX_VALUE ? Double.NaN : r.lagMillis);
+        }
+
+        void probe() {
+            try {
+                Timestamp beat = jdbcTemplate.queryForObject(READ_BEAT, Timestamp.class);
+                lagMillis = Math.max(0, System.currentTimeMillis() - beat.getTime());
+            } catch (DataAccessException ex) {
+                lagMillis = Long.MAX_VALUE;
+                log.warn("Failed to read the heartbeat of replica {}", name, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.library.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = SchedulingConfig.ENABLED, havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+    public static final String ENABLED = "application.scheduling.enabled";
+}
@@ -0,0 +1,67 @@
+package com.example.library.config;
+
+import com.example.library.api.limit.AdaptiveLimiter;
+import com.example.library.api.limit.ConcurrencyLimitInterceptor;
+import com.example.library.service.LibraryMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    public static final String READS = "reads";
+    public static final String CHECKOUTS = "checkouts";
+
+    private final LibraryMetrics metrics;
+
+    @Value("${application.limits.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    @Value("${application.limits.reads.initial:20}")
+    private int readsInitial;
+
+    @Value("${application.limits.reads.min:4}")
+    private int readsMin;
+
+    @Value("${application.limits.reads.max:200}")
+    private int readsMax;
+
+    @Value("${application.limits.checkouts.initial:10}")
+    private int checkoutsInitial;
+
+    @Value("${application.limits.checkouts.min:2}")
+    private int checkoutsMin;
+
+    @Value("${application.limits.checkouts.max:100}")
+    private int checkoutsMax;
+
+    public WebConfig(LibraryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Bean
+    public AdaptiveLimiter readLimiter() {
+        return new AdaptiveLimiter(READS, readsInitial, readsMin, readsMax, metrics);
+    }
+
+    @Bean
+    public AdaptiveLimiter checkoutLimiter() {
+        return new AdaptiveLimiter(CHECKOUTS, checkoutsInitial, checkoutsMin, checkoutsMax, metrics);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ConcurrencyLimitInterceptor(readLimiter(),
+                        new HashSet<>(Arrays.asList("GET", "HEAD")), retryAfterSeconds))
+                .addPathPatterns("/api/**")
+                .excludePathPatterns("/api/*/export");
+        registry.addInterceptor(new ConcurrencyLimitInterceptor(checkoutLimiter(),
+                        new HashSet<>(Arrays.asList("POST")), retryAfterSeconds))
+                .addPathPatterns("/api/loans");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.library.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(JobPartition.Key.class)
+public class JobPartition {
+    @Id
+    private String job;
+
+    @Id
+    @Column(name = "partition_no")
+    private Integer partition;
+
+    private LocalDate runDate;
+
+    private Long lastId;
+
+    private Boolean completed;
+
+    private String owner;
+
+    private Instant leaseUntil;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String job;
+        private Integer partition;
+    }
+}
@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -12,7 +13,9 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.Version;
 
+import java.time.Instant;
 import java.time.LocalDate;
 
 @Data
@@ -36,5 +39,16 @@ public class Loan {
 
     private LocalDate loanDate;
 
-    private Boolean returned;
+    @Column(name = "due_date")
+    private LocalDate dueDate;
+
+    @Builder.Default
+    private Boolean returned = false;
+
+    @Version
+    private Long version;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private Instant updatedAt;
 }
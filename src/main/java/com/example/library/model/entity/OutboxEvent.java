@@ -0,0 +1,63 @@
+package com.example.library.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+public class OutboxEvent {
+    public enum Type {
+        LOAN_CREATED, LOAN_RETURNED, LOAN_OVERDUE, LOAN_LATE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private Type type;
+
+    @Column(name = "dedup_key")
+    private String dedupKey;
+
+    @Column(name = "loan_id")
+    private Long loanId;
+
+    private String recipient;
+
+    private String customer;
+
+    @Column(name = "book_title")
+    private String bookTitle;
+
+    private String message;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    private Integer attempts;
+
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    @Column(name = "dispatched_at")
+    private Instant dispatchedAt;
+
+    @Column(name = "claimed_by")
+    private String claimedBy;
+}
@@ -1,12 +1,98 @@
 package com.example.library.model.repository;
 
 import com.example.library.model.entity.Book;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 public interface BookRepository extends JpaRepository<Book, Long> {
+    String EXPORT_FETCH_SIZE = "500";
+
     boolean existsByIsbn( String isbn) ;
 
     Optional<Book> findByIsbn( String isbn );
+
+    @Query(value = "select b.version as version, b.updatedAt as updatedAt from Book as b where b.id = :id")
+    Optional<BookVersion> findVersionById( @Param("id") Long id );
+
+    Slice<Book> findByIdGreaterThan( Long id, Pageable pageRequest );
+
+    @Query(value = "select b from Book as b where b.updatedAt >= :since and b.id > :lastId order by b.id")
+    List<Book> findChangedAfter( @Param("since") Instant since, @Param("lastId") Long lastId, Pageable pageRequest );
+
+    boolean existsByIdAndActiveLoanIdIsNotNull( Long id );
+
+    List<Book> findByActiveLoanIdIn( Collection<Long> loanIds );
+
+    @Query(value = "select b from Book as b where b.id in (select l.book.id from Loan as l where l.id in :loanIds)")
+    List<Book> findByLoanIdIn( @Param("loanIds") Collection<Long> loanIds );
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "update Book as b set b.version = b.version + 1, b.updatedAt = current_timestamp where b.id in :ids")
+    int touch( @Param("ids") Collection<Long> ids );
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "update Book as b set b.activeLoanId = :loanId, b.version = b.version + 1, b.updatedAt = current_timestamp where b.id = :id")
+    int markLent( @Param("id") Long id, @Param("loanId") Long loanId );
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "update Book as b set b.activeLoanId = null, b.version = b.version + 1, b.updatedAt = current_timestamp where b.activeLoanId in :loanIds")
+    int markAvailable( @Param("loanIds") Collection<Long> loanIds );
+
+    @Modifying(clearAutomatically = true)
+    @Query(nativeQuery = true, value = "update book b" +
+            " set active_loan_id = null, version = version + 1, updated_at = current_timestamp" +
+            " where active_loan_id is not null" +
+            " and not exists (select 1 from loan l where l.id = b.active_loan_id and l.active_book = b.id)")
+    int clearStaleActiveLoans();
+
+    @Modifying(clearAutomatically = true)
+    @Query(nativeQuery = true, value = "update book b" +
+            " set active_loan_id = (select l.id from loan l where l.active_book = b.id)," +
+            " version = version + 1, updated_at = current_timestamp" +
+            " where active_loan_id is null and exists (select 1 from loan l where l.active_book = b.id)")
+    int fillMissingActiveLoans();
+
+    @Query(value = "select b.isbn from Book as b where b.isbn in :isbns")
+    Set<String> findExistingIsbns( @Param("isbns") Collection<String> isbns );
+
+    @Query(value = "select b from Book as b" +
+            " where (:title is null or lower(b.title) like :title escape '\\')" +
+            " and (:author is null or lower(b.author) like :author escape '\\')" +
+            " and (:isbn is null or lower(b.isbn) like :isbn escape '\\')" +
+            " and b.isbn >= :lastIsbn and (b.isbn > :lastIsbn or b.id > :lastId)" +
+            " order by b.isbn, b.id")
+    Slice<Book> findAfter(
+            @Param("title") String title,
+            @Param("author") String author,
+            @Param("isbn") String isbn,
+            @Param("lastIsbn") String lastIsbn,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query(value = "select b from Book as b" +
+            " where (:title is null or lower(b.title) like :title escape '\\')" +
+            " and (:author is null or lower(b.author) like :author escape '\\')" +
+            " and (:isbn is null or lower(b.isbn) like :isbn escape '\\')" +
+            " order by b.id")
+    Stream<Book> streamAll(
+            @Param("title") String title,
+            @Param("author") String author,
+            @Param("isbn") String isbn);
 }
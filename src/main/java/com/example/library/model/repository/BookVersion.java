@@ -0,0 +1,9 @@
+package com.example.library.model.repository;
+
+import java.time.Instant;
+
+public interface BookVersion {
+    Long getVersion();
+
+    Instant getUpdatedAt();
+}
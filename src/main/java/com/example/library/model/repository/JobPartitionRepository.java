@@ -0,0 +1,54 @@
+package com.example.library.model.repository;
+
+import com.example.library.model.entity.JobPartition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+public interface JobPartitionRepository extends JpaRepository<JobPartition, JobPartition.Key> {
+    @Transactional
+    @Modifying
+    @Query(value = "insert into job_partition (job, partition_no) select :job, :partition" +
+            " where not exists (select 1 from job_partition p where p.job = :job and p.partition_no = :partition)",
+            nativeQuery = true)
+    int create( @Param("job") String job, @Param("partition") int partition );
+
+    @Modifying(clearAutomatically = true)
+    @Query("update JobPartition p set p.owner = :owner, p.leaseUntil = :until," +
+            " p.lastId = case when p.runDate = :runDate then p.lastId else 0 end," +
+            " p.completed = case when p.runDate = :runDate then p.completed else false end," +
+            " p.runDate = :runDate" +
+            " where p.job = :job and p.partition = :partition" +
+            " and (p.runDate is null or p.runDate <> :runDate" +
+            " or (p.completed = false and (p.leaseUntil is null or p.leaseUntil < :now)))")
+    int claim( @Param("job") String job, @Param("partition") int partition, @Param("runDate") LocalDate runDate,
+               @Param("owner") String owner, @Param("now") Instant now, @Param("until") Instant until );
+
+    @Modifying(clearAutomatically = true)
+    @Query("update JobPartition p set p.owner = :owner, p.leaseUntil = :until" +
+            " where p.job = :job and p.partition = :partition and p.runDate = :runDate" +
+            " and p.completed = false and p.leaseUntil < :now")
+    int reclaim( @Param("job") String job, @Param("partition") int partition, @Param("runDate") LocalDate runDate,
+                 @Param("owner") String owner, @Param("now") Instant now, @Param("until") Instant until );
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update JobPartition p set p.lastId = :lastId, p.leaseUntil = :until" +
+            " where p.job = :job and p.partition = :partition and p.owner = :owner")
+    int checkpoint( @Param("job") String job, @Param("partition") int partition, @Param("owner") String owner,
+                    @Param("lastId") Long lastId, @Param("until") Instant until );
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update JobPartition p set p.completed = true, p.leaseUntil = null" +
+            " where p.job = :job and p.partition = :partition and p.owner = :owner")
+    int complete( @Param("job") String job, @Param("partition") int partition, @Param("owner") String owner );
+
+    List<JobPartition> findByJobOrderByPartition( String job );
+}
@@ -0,0 +1,11 @@
+package com.example.library.model.repository;
+
+import java.time.LocalDate;
+
+public interface LoanDueDate {
+    Long getId();
+
+    LocalDate getDueDate();
+
+    Boolean getReturned();
+}
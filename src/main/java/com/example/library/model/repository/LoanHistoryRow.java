@@ -0,0 +1,27 @@
+package com.example.library.model.repository;
+
+import java.time.LocalDate;
+
+public interface LoanHistoryRow {
+    Long getId();
+
+    String getCustomer();
+
+    String getCustomerEmail();
+
+    LocalDate getLoanDate();
+
+    LocalDate getDueDate();
+
+    Boolean getReturned();
+
+    Long getBookId();
+
+    String getIsbn();
+
+    String getTitle();
+
+    String getAuthor();
+
+    Long getActiveLoanId();
+}
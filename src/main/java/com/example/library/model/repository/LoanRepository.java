@@ -4,26 +4,152 @@ import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
-public interface LoanRepository extends JpaRepository<Loan, Long> {
-    @Query(value = "select case when (count(l.id) > 0) then true else false end" +
-            " from Loan l where l.book = :book and (l.returned is null or l.returned is false)")
-    boolean existsByBookAndNotReturned( @Param("book") Book book );
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
-    @Query(value = "select l from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer")
+public interface LoanRepository extends JpaRepository<Loan, Long>, LoanRepositoryCustom {
+    String EXPORT_FETCH_SIZE = "500";
+
+    String LOAN_COLUMNS = "l.id, l.customer, l.customer_email, l.id_book, l.loan_date, l.due_date, l.returned, l.version, l.updated_at";
+    String BY_ISBN_OR_CUSTOMER = " join book b on b.id = l.id_book where (b.isbn = :isbn or l.customer = :customer)";
+    String HISTORY_COLUMNS = "l.id as id, l.customer as customer, l.customer_email as customerEmail, l.loan_date as loanDate," +
+            " l.due_date as dueDate, l.returned as returned, b.id as bookId, b.isbn as isbn, b.title as title, b.author as author," +
+            " b.active_loan_id as activeLoanId";
+    String BY_BOOK = " join book b on b.id = l.id_book where l.id_book = :bookId";
+
+    @Query(value = "select l from Loan as l join fetch l.book as b where b.isbn = :isbn or l.customer = :customer",
+            countQuery = "select count(l) from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer")
     Page<Loan> findByBookIsbnOrCustomer(
             @Param("isbn") String isbn,
             @Param("customer") String customer,
             Pageable pageRequest);
 
+    @Query(value = "select l from Loan as l join fetch l.book as b" +
+            " where (b.isbn = :isbn or l.customer = :customer) and l.id > :lastId order by l.id")
+    Slice<Loan> findByBookIsbnOrCustomerAfter(
+            @Param("isbn") String isbn,
+            @Param("customer") String customer,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query(value = "select l from Loan as l join fetch l.book as b" +
+            " where (:isbn is null and :customer is null) or b.isbn = :isbn or l.customer = :customer order by l.id")
+    Stream<Loan> streamByBookIsbnOrCustomer(
+            @Param("isbn") String isbn,
+            @Param("customer") String customer);
+
+    @Query(value = "select * from (select " + HISTORY_COLUMNS + " from loan l" + BY_ISBN_OR_CUSTOMER +
+            " union all select " + HISTORY_COLUMNS + " from loan_history l" + BY_ISBN_OR_CUSTOMER + ") as loans order by id",
+            countQuery = "select (select count(*) from loan l" + BY_ISBN_OR_CUSTOMER + ")" +
+                    " + (select count(*) from loan_history l" + BY_ISBN_OR_CUSTOMER + ")",
+            nativeQuery = true)
+    Page<LoanHistoryRow> findWithHistoryByBookIsbnOrCustomer(
+            @Param("isbn") String isbn,
+            @Param("customer") String customer,
+            Pageable pageRequest);
+
+    @Query(value = "select * from (select " + HISTORY_COLUMNS + " from loan l" + BY_ISBN_OR_CUSTOMER + " and l.id > :lastId" +
+            " union all select " + HISTORY_COLUMNS + " from loan_history l" + BY_ISBN_OR_CUSTOMER + " and l.id > :lastId)" +
+            " as loans order by id",
+            nativeQuery = true)
+    Slice<LoanHistoryRow> findWithHistoryByBookIsbnOrCustomerAfter(
+            @Param("isbn") String isbn,
+            @Param("customer") String customer,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @EntityGraph(attributePaths = "book")
     Page<Loan> findByBook( Book book, Pageable pageRequest );
 
-    @Query(value = "select l from Loan as l where l.loanDate <= :daysAgo and (l.returned is null or l.returned is false)")
-    List<Loan> findByLoanDateLessThanAndNotReturned( @Param("daysAgo")LocalDate daysAgo );
+    @Query(value = "select * from (select " + HISTORY_COLUMNS + " from loan l" + BY_BOOK +
+            " union all select " + HISTORY_COLUMNS + " from loan_history l" + BY_BOOK + ") as loans order by id",
+            countQuery = "select (select count(*) from loan l where l.id_book = :bookId)" +
+                    " + (select count(*) from loan_history l where l.id_book = :bookId)",
+            nativeQuery = true)
+    Page<LoanHistoryRow> findWithHistoryByBook( @Param("bookId") Long bookId, Pageable pageRequest );
+
+    @Query(value = "select * from (select " + HISTORY_COLUMNS + " from loan l" + BY_BOOK + " and l.id > :lastId" +
+            " union all select " + HISTORY_COLUMNS + " from loan_history l" + BY_BOOK + " and l.id > :lastId)" +
+            " as loans order by id",
+            nativeQuery = true)
+    Slice<LoanHistoryRow> findWithHistoryByBookAfter(
+            @Param("bookId") Long bookId,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @Query(value = "select l from Loan as l join fetch l.book where l.book = :book and l.id > :lastId order by l.id")
+    Slice<Loan> findByBookAfter(
+            @Param("book") Book book,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @Query(value = "select l from Loan as l join fetch l.book where l.dueDate < :dueBefore and l.returned = false")
+    List<Loan> findDueBeforeAndNotReturned( @Param("dueBefore") LocalDate dueBefore );
+
+    @Query(value = "select l from Loan as l join fetch l.book where l.id > :lastId and l.dueDate < :dueBefore" +
+            " and l.returned = false and l.customerEmail is not null and mod(l.id, :partitions) = :partition order by l.id")
+    List<Loan> findLateLoansAfter(
+            @Param("dueBefore") LocalDate dueBefore,
+            @Param("partition") int partition,
+            @Param("partitions") int partitions,
+            @Param("lastId") Long lastId,
+            Pageable pageRequest);
+
+    @Query(value = "select l.id as id, l.dueDate as dueDate, l.returned as returned from Loan as l" +
+            " where l.id > :lastId and l.returned = false and l.dueDate is not null order by l.id")
+    List<LoanDueDate> findActiveDueDatesAfter( @Param("lastId") Long lastId, Pageable pageRequest );
+
+    @Query(value = "select l.id as id, l.dueDate as dueDate, l.returned as returned from Loan as l" +
+            " where l.updatedAt >= :since and l.id > :lastId order by l.id")
+    List<LoanDueDate> findDueDatesChangedAfter( @Param("since") Instant since, @Param("lastId") Long lastId, Pageable pageRequest );
+
+    @Query(value = "select l.id from Loan as l where l.id in :ids")
+    Set<Long> findExistingIds( @Param("ids") Collection<Long> ids );
+
+    @Query(value = "select l.id from Loan as l where l.id in :ids and l.returned = false")
+    Set<Long> findNotReturnedIds( @Param("ids") Collection<Long> ids );
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(value = "select l.id from Loan as l where l.id in :ids and l.returned = false")
+    Set<Long> lockNotReturnedIds( @Param("ids") Collection<Long> ids );
+
+    @Query(value = "select l from Loan as l join fetch l.book as b where b.isbn in :isbns and l.returned = false")
+    List<Loan> findNotReturnedByBookIsbns( @Param("isbns") Collection<String> isbns );
+
+    @Query(value = "select l.id from Loan as l where l.returned = true and l.updatedAt < :returnedBefore order by l.id")
+    List<Long> findArchivableIds( @Param("returnedBefore") Instant returnedBefore, Pageable pageRequest );
+
+    @Modifying
+    @Query(value = "insert into loan_history (id, customer, customer_email, id_book, loan_date, due_date, returned," +
+            " version, updated_at, archived_at)" +
+            " select " + LOAN_COLUMNS + ", current_timestamp from loan l where l.id in :ids and l.returned = true",
+            nativeQuery = true)
+    int copyToHistory( @Param("ids") Collection<Long> ids );
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "delete from Loan as l where l.id in :ids and l.returned = true")
+    int deleteReturned( @Param("ids") Collection<Long> ids );
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "update Loan as l set l.returned = true, l.version = l.version + 1, l.updatedAt = current_timestamp where l.id in :ids and l.returned = false")
+    int markReturned( @Param("ids") Collection<Long> ids );
 }
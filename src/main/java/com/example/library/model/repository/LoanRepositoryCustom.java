@@ -0,0 +1,10 @@
+package com.example.library.model.repository;
+
+import com.example.library.model.entity.Loan;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+public interface LoanRepositoryCustom {
+    Optional<Loan> checkout( String isbn, String customer, String customerEmail, LocalDate loanDate, LocalDate dueDate );
+}
@@ -0,0 +1,58 @@
+package com.example.library.model.repository;
+
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Optional;
+
+@RequiredArgsConstructor
+public class LoanRepositoryCustomImpl implements LoanRepositoryCustom {
+    private static final String CHECKOUT =
+            "insert into loan (customer, customer_email, id_book, loan_date, due_date, returned)" +
+            " select ?, ?, b.id, ?, ?, false from book b where b.isbn = ? and b.active_loan_id is null";
+    private static final String MARK_LENT =
+            "update book set active_loan_id = ?, version = version + 1, updated_at = current_timestamp where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Optional<Loan> checkout(String isbn, String customer, String customerEmail, LocalDate loanDate,
+                                   LocalDate dueDate) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        int inserted = jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CHECKOUT, new String[]{"id", "id_book"});
+            statement.setString(1, customer);
+            statement.setString(2, customerEmail);
+            statement.setDate(3, Date.valueOf(loanDate));
+            statement.setDate(4, Date.valueOf(dueDate));
+            statement.setString(5, isbn);
+            return statement;
+        }, keyHolder);
+
+        if (inserted == 0) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> keys = keyHolder.getKeys();
+        Long id = ((Number) keys.get("id")).longValue();
+        Long bookId = ((Number) keys.get("id_book")).longValue();
+        jdbcTemplate.update(MARK_LENT, id, bookId);
+
+        return Optional.of(Loan.builder()
+                .id(id)
+                .book(Book.builder().id(bookId).isbn(isbn).activeLoanId(id).build())
+                .customer(customer)
+                .customerEmail(customerEmail)
+                .loanDate(loanDate)
+                .dueDate(dueDate)
+                .build());
+    }
+}
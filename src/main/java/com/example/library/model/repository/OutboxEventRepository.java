@@ -0,0 +1,61 @@
+package com.example.library.model.repository;
+
+import com.example.library.model.entity.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true)
+    @Query(value = "insert into outbox_event (type, dedup_key, loan_id, recipient, customer, book_title, created_at, next_attempt_at)" +
+            " select :type, concat(:type, ':', l.id), l.id, l.customer_email, l.customer, b.title, current_timestamp, current_timestamp" +
+            " from loan l join book b on b.id = l.id_book" +
+            " where l.id in :loanIds and l.customer_email is not null" +
+            " and not exists (select 1 from outbox_event o where o.dedup_key = concat(:type, ':', l.id))",
+            nativeQuery = true)
+    int enqueue( @Param("type") String type, @Param("loanIds") Collection<Long> loanIds );
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Modifying(flushAutomatically = true)
+    @Query(value = "insert into outbox_event (type, dedup_key, loan_id, recipient, customer, book_title, message, created_at, next_attempt_at)" +
+            " select :type, :dedupKey, l.id, l.customer_email, l.customer, b.title, :message, current_timestamp, current_timestamp" +
+            " from loan l join book b on b.id = l.id_book" +
+            " where l.id = :loanId and l.customer_email is not null" +
+            " and not exists (select 1 from outbox_event o where o.dedup_key = :dedupKey)",
+            nativeQuery = true)
+    int enqueueMessage( @Param("type") String type, @Param("dedupKey") String dedupKey, @Param("loanId") Long loanId,
+                        @Param("message") String message );
+
+    @Query("select e.id from OutboxEvent e where e.dispatchedAt is null and e.attempts < :maxAttempts" +
+            " and e.nextAttemptAt <= :now order by e.id")
+    List<Long> findDueIds( @Param("now") Instant now, @Param("maxAttempts") int maxAttempts, Pageable pageable );
+
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent e set e.claimedBy = :claim, e.nextAttemptAt = :leaseUntil" +
+            " where e.id in :ids and e.dispatchedAt is null and e.attempts < :maxAttempts and e.nextAttemptAt <= :now")
+    int claim( @Param("ids") Collection<Long> ids, @Param("claim") String claim, @Param("now") Instant now,
+               @Param("leaseUntil") Instant leaseUntil, @Param("maxAttempts") int maxAttempts );
+
+    @Query("select e from OutboxEvent e where e.id in :ids and e.claimedBy = :claim order by e.id")
+    List<OutboxEvent> findClaimed( @Param("ids") Collection<Long> ids, @Param("claim") String claim );
+
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent e set e.dispatchedAt = :now where e.id in :ids")
+    int markDispatched( @Param("ids") Collection<Long> ids, @Param("now") Instant now );
+
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent e set e.attempts = e.attempts + 1, e.nextAttemptAt = :next where e.id = :id")
+    int retryLater( @Param("id") Long id, @Param("next") Instant next );
+}
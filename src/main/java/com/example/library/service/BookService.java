@@ -1,21 +1,51 @@
 package com.example.library.service;
 
+import com.example.library.api.dto.BookImportResultDTO;
+import com.example.library.api.dto.BookSuggestionDTO;
 import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookVersion;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface BookService {
     Book save(Book any);
 
+    List<BookImportResultDTO> importBooks(List<Book> books);
+
     Optional<Book> getById(Long id);
 
+    /**
+     * Reads the version and last change of a book from the database, bypassing the per-instance cache.
+     */
+    Optional<BookVersion> getVersion(Long id);
+
+    /**
+     * Reloads a book from the database and replaces its cached copy.
+     */
+    Optional<Book> refresh(Long id);
+
     void delete(Book book);
 
     Book update(Book book);
 
+    Optional<Book> update(Long id, Consumer<Book> changes);
+
     Page<Book> find(Book filter, Pageable pageRequest);
 
+    Page<Book> search(String query, Pageable pageRequest);
+
+    List<BookSuggestionDTO> suggest(String prefix, int size);
+
+    Slice<Book> findAfter(Book filter, String lastIsbn, Long lastId, int size);
+
+    void export(Book filter, Consumer<Book> consumer);
+
     Optional<Book> getBookByIsbn(String isbn);
+
+    int repairAvailability();
 }
@@ -4,4 +4,6 @@ import java.util.List;
 
 public interface EmailService {
     void sendMails(String subject, String message, List<String> mailsList);
+
+    void sendMail(String subject, String message, String mail);
 }
@@ -0,0 +1,84 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.JobPartition;
+import com.example.library.model.repository.JobPartitionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Splits a scheduled job into partitions that the instances sharing the database claim through time-bound leases.
+ * A partition is claimed once per run date; the owner renews its lease with each checkpoint, and a partition whose
+ * owner stopped renewing is reclaimed by another instance, which resumes from the last checkpoint.
+ */
+@Service
+@Slf4j
+public class JobCoordinator {
+    private final JobPartitionRepository repository;
+    private final long leaseMillis;
+    private final String owner;
+
+    public JobCoordinator(JobPartitionRepository repository, @Value("${application.jobs.lease-ms:300000}") long leaseMillis) {
+        this.repository = repository;
+        this.leaseMillis = leaseMillis;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void plan(String job, int partitions) {
+        for (int partition = 0; partition < partitions; partition++) {
+            try {
+                repository.create(job, partition);
+            } catch (DataIntegrityViolationException ex) {
+                log.debug("Partition {} of job {} already created by another instance", partition, job);
+            }
+        }
+    }
+
+    @Transactional
+    public Optional<JobPartition> claim(String job, int partition, LocalDate runDate) {
+        Instant now = Instant.now();
+        int claimed = repository.claim(job, partition, runDate, owner, now, now.plusMillis(leaseMillis));
+        return claimed == 0 ? Optional.empty() : repository.findById(new JobPartition.Key(job, partition));
+    }
+
+    @Transactional
+    public Optional<JobPartition> reclaim(String job, int partition, LocalDate runDate) {
+        Instant now = Instant.now();
+        int reclaimed = repository.reclaim(job, partition, runDate, owner, now, now.plusMillis(leaseMillis));
+        if (reclaimed == 0) {
+            return Optional.empty();
+        }
+        log.warn("Reclaimed expired lease of partition {} of job {}", partition, job);
+        return repository.findById(new JobPartition.Key(job, partition));
+    }
+
+    public boolean checkpoint(String job, int partition, Long lastId) {
+        return repository.checkpoint(job, partition, owner, lastId, Instant.now().plusMillis(leaseMillis)) > 0;
+    }
+
+    public boolean complete(String job, int partition) {
+        return repository.complete(job, partition, owner) > 0;
+    }
+
+    public List<JobPartition> partitions(String job) {
+        return repository.findByJobOrderByPartition(job);
+    }
+
+    public List<JobPartition> partitions() {
+        return repository.findAll(Sort.by("job", "partition"));
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.JobPartition;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Component
+@Endpoint(id = "jobs")
+@RequiredArgsConstructor
+public class JobsEndpoint {
+    private final JobCoordinator coordinator;
+
+    @ReadOperation
+    public Map<String, List<JobPartition>> jobs() {
+        return coordinator.partitions().stream()
+                .collect(Collectors.groupingBy(JobPartition::getJob, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    @ReadOperation
+    public List<JobPartition> job(@Selector String name) {
+        return coordinator.partitions(name);
+    }
+}
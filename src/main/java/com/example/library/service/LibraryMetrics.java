@@ -0,0 +1,154 @@
+package com.example.library.service;
+
+import com.example.library.config.MetricsConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Library meters, registered on the application {@link MeterRegistry}.
+ * With {@code application.metrics.enabled=false} every meter is a no-op.
+ */
+@Component
+public class LibraryMetrics {
+    public static final String SERVICE_TIMER = "library.service";
+
+    private final MeterRegistry registry;
+
+    private final Counter loansCreated;
+    private final Counter loansAlreadyLent;
+    private final Counter loansBookNotFound;
+
+    private final Counter loansReturned;
+    private final Counter loansAlreadyReturned;
+    private final Counter loansUnknown;
+
+    private final Counter loansOverdue;
+    private final Counter loansArchived;
+
+    private final Counter booksCreated;
+    private final Counter booksDuplicatedIsbn;
+
+    private final Counter mailsSent;
+    private final Counter mailsFailed;
+
+    private final Counter outboxDispatched;
+    private final Counter outboxRetried;
+    private final Counter outboxAbandoned;
+
+    public LibraryMetrics(MeterRegistry registry, @Value("${" + MetricsConfig.ENABLED + ":true}") boolean enabled) {
+        this.registry = enabled ? registry : new CompositeMeterRegistry();
+
+        loansCreated = counter("library.loans.checkout", "outcome", "created");
+        loansAlreadyLent = counter("library.loans.checkout", "outcome", "already_lent");
+        loansBookNotFound = counter("library.loans.checkout", "outcome", "book_not_found");
+
+        loansReturned = counter("library.loans.return", "outcome", "returned");
+        loansAlreadyReturned = counter("library.loans.return", "outcome", "already_returned");
+        loansUnknown = counter("library.loans.return", "outcome", "unknown");
+
+        loansOverdue = this.registry.counter("library.loans.overdue");
+        loansArchived = this.registry.counter("library.loans.archived");
+
+        booksCreated = counter("library.books.create", "outcome", "created");
+        booksDuplicatedIsbn = counter("library.books.create", "outcome", "duplicated_isbn");
+
+        mailsSent = counter("library.mail", "outcome", "sent");
+        mailsFailed = counter("library.mail", "outcome", "failed");
+
+        outboxDispatched = counter("library.outbox", "outcome", "dispatched");
+        outboxRetried = counter("library.outbox", "outcome", "retried");
+        outboxAbandoned = counter("library.outbox", "outcome", "abandoned");
+    }
+
+    public void loanCreated() {
+        loansCreated.increment();
+    }
+
+    public void loanAlreadyLent() {
+        loansAlreadyLent.increment();
+    }
+
+    public void loanBookNotFound() {
+        loansBookNotFound.increment();
+    }
+
+    public void loansReturned(int returned, int alreadyReturned, int unknown) {
+        loansReturned.increment(returned);
+        loansAlreadyReturned.increment(alreadyReturned);
+        loansUnknown.increment(unknown);
+    }
+
+    public void loansOverdue(int loans) {
+        loansOverdue.increment(loans);
+    }
+
+    public void loansArchived(int loans) {
+        loansArchived.increment(loans);
+    }
+
+    public void bookCreated() {
+        booksCreated.increment();
+    }
+
+    public void bookDuplicatedIsbn() {
+        booksDuplicatedIsbn.increment();
+    }
+
+    public void booksImported(String status, long books) {
+        counter("library.books.import", "status", status.toLowerCase()).increment(books);
+    }
+
+    public void mailSent() {
+        mailsSent.increment();
+    }
+
+    public void mailFailed() {
+        mailsFailed.increment();
+    }
+
+    public void outboxDispatched(int events) {
+        outboxDispatched.increment(events);
+    }
+
+    public void outboxRetried() {
+        outboxRetried.increment();
+    }
+
+    public void outboxAbandoned() {
+        outboxAbandoned.increment();
+    }
+
+    public void dataSourceRoute(String route) {
+        counter("library.datasource.route", "route", route).increment();
+    }
+
+    public void limiterRejected(String limiter) {
+        counter("library.limiter.rejected", "limiter", limiter).increment();
+    }
+
+    public <T> T overdueTracked(T state, ToDoubleFunction<T> loans) {
+        return registry.gauge("library.loans.tracked", Tags.empty(), state, loans);
+    }
+
+    public <T> T mailThroughput(T state, ToDoubleFunction<T> messagesPerSecond) {
+        return registry.gauge("library.mail.throughput", Tags.empty(), state, messagesPerSecond);
+    }
+
+    public <T> T replicaLag(String replica, T state, ToDoubleFunction<T> lagMillis) {
+        return registry.gauge("library.datasource.replica.lag", Tags.of("replica", replica), state, lagMillis);
+    }
+
+    public <T> T limiterGauge(String gauge, String limiter, T state, ToDoubleFunction<T> value) {
+        return registry.gauge("library.limiter." + gauge, Tags.of("limiter", limiter), state, value);
+    }
+
+    private Counter counter(String name, String tag, String value) {
+        return registry.counter(name, tag, value);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.library.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves loans returned more than max-age-days ago from loan to loan_history, a batch per transaction, during the
+ * off-peak window that starts with the cron. A single instance archives, under a lease of the job coordinator; a run
+ * cut short by the end of the window continues in the next one.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LoanArchiver {
+    static final String JOB_ARCHIVE_LOANS = "archive-loans";
+
+    private final LoanService loanService;
+    private final JobCoordinator coordinator;
+
+    @Value("${application.loans.archive.max-age-days:365}")
+    private long maxAgeDays;
+
+    @Value("${application.loans.archive.batch-size:500}")
+    private int batchSize;
+
+    @Value("${application.loans.archive.window-ms:1800000}")
+    private long windowMillis;
+
+    @Value("${application.loans.archive.pause-ms:100}")
+    private long pauseMillis;
+
+    @Scheduled(cron = "${application.loans.archive.cron:0 0 2 1/1 * ?}")
+    public int archive() {
+        coordinator.plan(JOB_ARCHIVE_LOANS, 1);
+        if (!coordinator.claim(JOB_ARCHIVE_LOANS, 0, LocalDate.now()).isPresent()) {
+            return 0;
+        }
+        Instant returnedBefore = Instant.now().minus(Duration.ofDays(maxAgeDays));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        int archived = 0;
+        List<Long> batch;
+        while (!(batch = loanService.archiveReturned(returnedBefore, batchSize)).isEmpty()) {
+            archived += batch.size();
+            if (!coordinator.checkpoint(JOB_ARCHIVE_LOANS, 0, batch.get(batch.size() - 1))) {
+                log.warn("Lost the loan archive lease after {} loans", archived);
+                return archived;
+            }
+            if (System.nanoTime() > deadline || !pause()) {
+                log.info("Archived {} returned loans, window over before the end", archived);
+                return archived;
+            }
+        }
+        coordinator.complete(JOB_ARCHIVE_LOANS, 0);
+        log.info("Archived {} returned loans", archived);
+        return archived;
+    }
+
+    private boolean pause() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
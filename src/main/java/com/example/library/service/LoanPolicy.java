@@ -0,0 +1,19 @@
+package com.example.library.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+@Component
+public class LoanPolicy {
+    private final int loanDays;
+
+    public LoanPolicy(@Value("${application.loans.days:5}") int loanDays) {
+        this.loanDays = loanDays;
+    }
+
+    public LocalDate dueDate(LocalDate loanDate) {
+        return loanDate.plusDays(loanDays);
+    }
+}
@@ -1,24 +1,49 @@
 package com.example.library.service;
 
 import com.example.library.api.dto.LoanFilterDTO;
+import com.example.library.api.dto.ReturnLoansResultDTO;
 import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface LoanService {
     Loan save(Loan loan);
 
+    Long checkout(String isbn, String customer, String customerEmail);
+
     Optional<Loan> getById(Long id);
 
     Loan update(Loan loan);
 
+    ReturnLoansResultDTO returnLoans(List<Long> ids, List<String> isbns);
+
     Page<Loan> find(LoanFilterDTO filter, Pageable pageRequest);
 
-    Page<Loan> getLoansByBook(Book book, Pageable pageRequest);
+    void export(LoanFilterDTO filter, Consumer<Loan> consumer);
+
+    Slice<Loan> findAfter(LoanFilterDTO filter, Long lastId, int size);
+
+    Page<Loan> getLoansByBook(Book book, boolean history, Pageable pageRequest);
+
+    Slice<Loan> getLoansByBookAfter(Book book, boolean history, Long lastId, int size);
 
     List<Loan> getAllLateLoans();
+
+    List<Loan> getLateLoans(int partition, int partitions, Long lastId, int size);
+
+    int notifyOverdue(Collection<Long> ids);
+
+    int enqueueLateMails(LocalDate day, Map<Long, String> messages);
+
+    List<Long> archiveReturned(Instant returnedBefore, int size);
 }
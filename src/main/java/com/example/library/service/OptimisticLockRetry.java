@@ -0,0 +1,55 @@
+package com.example.library.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+@Component
+@Slf4j
+public class OptimisticLockRetry {
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    public OptimisticLockRetry(PlatformTransactionManager transactionManager,
+                               @Value("${application.concurrency.retry.max-attempts:3}") int maxAttempts,
+                               @Value("${application.concurrency.retry.backoff-ms:20}") long backoffMillis) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    public <T> T execute(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> work.get());
+            } catch (OptimisticLockingFailureException ex) {
+                if (attempt >= maxAttempts) {
+                    throw ex;
+                }
+                log.warn("Optimistic lock conflict, retrying attempt {} of {}", attempt + 1, maxAttempts);
+                pause(attempt);
+            }
+        }
+    }
+
+    private void pause(int attempt) {
+        if (backoffMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(backoffMillis * attempt + ThreadLocalRandom.current().nextLong(backoffMillis));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.OutboxEvent;
+import com.example.library.model.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Mails the loan events of the outbox, at least once: an event is marked dispatched only after its mail was
+ * accepted, and failed events are retried with exponential backoff up to max-attempts. The next batch is fetched only
+ * when the previous one finished, and a batch in which every send failed ends the round. Late loan mails the daily
+ * job could not send carry their rendered text and are mailed as is.
+ * <p>
+ * Each batch is claimed before it is mailed, by a conditional update that pushes its next attempt to the end of a
+ * lease, so dispatchers on other instances skip it. Only the events this claim won are mailed; a batch left behind by
+ * a stopped instance is picked up again once its lease expires.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxDispatcher {
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final OutboxEventRepository repository;
+    private final EmailService emailService;
+    private final LibraryMetrics metrics;
+
+    @Value("${application.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${application.outbox.workers:4}")
+    private int workers;
+
+    @Value("${application.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${application.outbox.backoff-ms:1000}")
+    private long backoffMillis;
+
+    @Value("${application.outbox.lease-ms:60000}")
+    private long leaseMillis;
+
+    @Value("${application.mail.loan-created.subject}")
+    private String createdSubject;
+
+    @Value("${application.mail.loan-created.message}")
+    private String createdMessage;
+
+    @Value("${application.mail.loan-returned.subject}")
+    private String returnedSubject;
+
+    @Value("${application.mail.loan-returned.message}")
+    private String returnedMessage;
+
+    @Value("${application.mail.loan-overdue.subject}")
+    private String overdueSubject;
+
+    @Value("${application.mail.loan-overdue.message}")
+    private String overdueMessage;
+
+    @Value("${application.mail.lateloans.subject}")
+    private String lateSubject;
+
+    private ExecutorService executor;
+
+    @Scheduled(fixedDelayString = "${application.outbox.poll-ms:1000}")
+    public int dispatch() {
+        int dispatched = 0;
+        List<Long> due;
+        do {
+            Instant now = Instant.now();
+            due = repository.findDueIds(now, maxAttempts, PageRequest.of(0, batchSize));
+            if (due.isEmpty()) {
+                break;
+            }
+            List<OutboxEvent> batch = claim(due, now);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            int sent = send(batch);
+            dispatched += sent;
+            if (sent == 0) {
+                log.warn("No outbox event of a batch of {} could be mailed, retrying later", batch.size());
+                break;
+            }
+        } while (due.size() == batchSize);
+        return dispatched;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private List<OutboxEvent> claim(List<Long> due, Instant now) {
+        String claim = UUID.randomUUID().toString();
+        if (repository.claim(due, claim, now, now.plusMillis(leaseMillis), maxAttempts) == 0) {
+            return Collections.emptyList();
+        }
+        return repository.findClaimed(due, claim);
+    }
+
+    private int send(List<OutboxEvent> batch) {
+        ExecutorService executor = executor();
+        List<CompletableFuture<Boolean>> sends = new ArrayList<>(batch.size());
+        for (OutboxEvent event : batch) {
+            sends.add(CompletableFuture.supplyAsync(() -> send(event), executor));
+        }
+
+        Instant now = Instant.now();
+        List<Long> dispatched = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxEvent event = batch.get(i);
+            if (sends.get(i).join()) {
+                dispatched.add(event.getId());
+            } else {
+                retryLater(event, now);
+            }
+        }
+        if (!dispatched.isEmpty()) {
+            repository.markDispatched(dispatched, now);
+            metrics.outboxDispatched(dispatched.size());
+        }
+        return dispatched.size();
+    }
+
+    private boolean send(OutboxEvent event) {
+        String subject;
+        String message;
+        switch (event.getType()) {
+            case LOAN_CREATED:
+                subject = createdSubject;
+                message = createdMessage;
+                break;
+            case LOAN_RETURNED:
+                subject = returnedSubject;
+                message = returnedMessage;
+                break;
+            case LOAN_LATE:
+                subject = lateSubject;
+                message = event.getMessage();
+                break;
+            default:
+                subject = overdueSubject;
+                message = overdueMessage;
+        }
+        if (event.getType() != OutboxEvent.Type.LOAN_LATE) {
+            message = personalize(event, message);
+        }
+        try {
+            emailService.sendMail(subject, message, event.getRecipient());
+            metrics.mailSent();
+            return true;
+        } catch (RuntimeException ex) {
+            metrics.mailFailed();
+            log.error("Failed to mail outbox event {}", event.getDedupKey(), ex);
+            return false;
+        }
+    }
+
+    private void retryLater(OutboxEvent event, Instant now) {
+        int attempts = event.getAttempts() + 1;
+        if (attempts >= maxAttempts) {
+            metrics.outboxAbandoned();
+            log.error("Giving up on outbox event {} after {} attempts", event.getDedupKey(), attempts);
+        } else {
+            metrics.outboxRetried();
+        }
+        long backoff = backoffMillis << Math.min(attempts - 1, MAX_BACKOFF_SHIFT);
+        repository.retryLater(event.getId(), now.plusMillis(backoff));
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(workers);
+        }
+        return executor;
+    }
+
+    private static String personalize(OutboxEvent event, String message) {
+        return String.format("%s, %s%n%nLivro: %s", event.getCustomer(), message, event.getBookTitle());
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.library.service;
+
+import com.example.library.model.repository.LoanDueDate;
+import com.example.library.model.repository.LoanRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the due date of every active loan in a min-heap, so loans are handed to the outbox as they become overdue
+ * instead of by a daily scan. The heap is loaded from the database at startup and then kept in sync with the loans
+ * changed since the previous poll, on this or any other instance. Every instance notifies; the outbox dedup key
+ * keeps a single {@code LOAN_OVERDUE} event per loan, and {@link OutboxDispatcher} claims each event before mailing
+ * it, so the notices of several instances end up as one mail.
+ */
+@Service
+@Slf4j
+public class OverdueTracker {
+    private static final Comparator<Entry> BY_DUE_DATE = Comparator
+            .comparing((Entry e) -> e.dueDate)
+            .thenComparing(e -> e.loanId);
+
+    private final LoanRepository repository;
+    private final LoanService loanService;
+    private final int batchSize;
+    private final long syncGraceMillis;
+
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(BY_DUE_DATE);
+    private final Map<Long, LocalDate> tracked = new HashMap<>();
+    private Instant syncedAt;
+
+    public OverdueTracker(LoanRepository repository, LoanService loanService, LibraryMetrics metrics,
+                          @Value("${application.loans.overdue.batch-size:1000}") int batchSize,
+                          @Value("${application.loans.overdue.sync-grace-ms:60000}") long syncGraceMillis) {
+        this.repository = repository;
+        this.loanService = loanService;
+        this.batchSize = batchSize;
+        this.syncGraceMillis = syncGraceMillis;
+        metrics.overdueTracked(this, OverdueTracker::size);
+    }
+
+    public synchronized int size() {
+        return tracked.size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        Instant startedAt = Instant.now();
+        heap.clear();
+        tracked.clear();
+        Long lastId = 0L;
+        List<LoanDueDate> loans;
+        while (!(loans = repository.findActiveDueDatesAfter(lastId, PageRequest.of(0, batchSize))).isEmpty()) {
+            loans.forEach(loan -> track(loan.getId(), loan.getDueDate()));
+            lastId = loans.get(loans.size() - 1).getId();
+        }
+        syncedAt = startedAt;
+        log.info("Tracking the due dates of {} active loans", tracked.size());
+    }
+
+    @Scheduled(fixedDelayString = "${application.loans.overdue.poll-ms:60000}")
+    public int poll() {
+        List<Long> overdue;
+        synchronized (this) {
+            if (syncedAt == null) {
+                return 0;
+            }
+            sync();
+            overdue = takeOverdue(LocalDate.now());
+        }
+        if (overdue.isEmpty()) {
+            return 0;
+        }
+        try {
+            return loanService.notifyOverdue(overdue);
+        } catch (RuntimeException ex) {
+            log.error("Failed to notify {} overdue loans, retrying on the next poll", overdue.size(), ex);
+            synchronized (this) {
+                overdue.forEach(id -> track(id, LocalDate.now()));
+            }
+            return 0;
+        }
+    }
+
+    private void sync() {
+        Instant startedAt = Instant.now();
+        Instant since = syncedAt.minusMillis(syncGraceMillis);
+        Long lastId = 0L;
+        List<LoanDueDate> loans;
+        while (!(loans = repository.findDueDatesChangedAfter(since, lastId, PageRequest.of(0, batchSize))).isEmpty()) {
+            for (LoanDueDate loan : loans) {
+                if (Boolean.TRUE.equals(loan.getReturned()) || loan.getDueDate() == null) {
+                    tracked.remove(loan.getId());
+                } else {
+                    track(loan.getId(), loan.getDueDate());
+                }
+            }
+            lastId = loans.get(loans.size() - 1).getId();
+        }
+        syncedAt = startedAt;
+        if (heap.size() > 2 * tracked.size() + batchSize) {
+            compact();
+        }
+    }
+
+    private void track(Long loanId, LocalDate dueDate) {
+        if (!dueDate.equals(tracked.put(loanId, dueDate))) {
+            heap.add(new Entry(loanId, dueDate));
+        }
+    }
+
+    private List<Long> takeOverdue(LocalDate today) {
+        List<Long> overdue = new ArrayList<>();
+        while (!heap.isEmpty() && !heap.peek().dueDate.isAfter(today)) {
+            Entry entry = heap.poll();
+            if (tracked.remove(entry.loanId, entry.dueDate)) {
+                overdue.add(entry.loanId);
+            }
+        }
+        return overdue;
+    }
+
+    private void compact() {
+        heap.clear();
+        tracked.forEach((loanId, dueDate) -> heap.add(new Entry(loanId, dueDate)));
+    }
+
+    private static final class Entry {
+        private final Long loanId;
+        private final LocalDate dueDate;
+
+        private Entry(Long loanId, LocalDate dueDate) {
+            this.loanId = loanId;
+            this.dueDate = dueDate;
+        }
+    }
+}
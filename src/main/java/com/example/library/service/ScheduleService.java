@@ -1,21 +1,43 @@
 package com.example.library.service;
 
+import com.example.library.model.entity.JobPartition;
 import com.example.library.model.entity.Loan;
+import com.example.library.service.mail.MailEngine;
+import com.example.library.service.mail.MailTemplate;
+import com.example.library.service.mail.OutgoingMail;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ScheduleService {
     private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
+    private static final String CRON_REPAIR_AVAILABILITY = "0 30 3 1/1 * ?";
+    static final String JOB_LATE_LOANS = "late-loans";
 
     private final LoanService loanService;
-    private final EmailService emailService;
+    private final BookService bookService;
+    private final MailEngine mailEngine;
+    private final JobCoordinator coordinator;
 
     @Value("${application.mail.lateloans.subject}")
     private String subject;
@@ -23,13 +45,91 @@ public class ScheduleService {
     @Value("${application.mail.lateloans.message}")
     private String message;
 
+    @Value("${application.mail.lateloans.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${application.jobs.late-loans.partitions:4}")
+    private int partitions;
+
+    private MailTemplate template;
+
+    @PostConstruct
+    void compileTemplates() {
+        template = MailTemplate.compile(message, "customer", "book", "days");
+    }
+
     @Scheduled(cron = CRON_LATE_LOANS)
     public void sendMailToLateLoans() {
-        List<Loan> allLateLoans = loanService.getAllLateLoans();
-        List<String> mailsList = allLateLoans.stream()
-                .map(loan -> loan.getCustomerEmail())
-                .collect(Collectors.toList());
+        LocalDate today = LocalDate.now();
+        coordinator.plan(JOB_LATE_LOANS, partitions);
+        runLateLoans(partition -> coordinator.claim(JOB_LATE_LOANS, partition, today), today);
+    }
+
+    @Scheduled(fixedDelayString = "${application.jobs.lease-ms:300000}", initialDelayString = "${application.jobs.lease-ms:300000}")
+    public void resumeLateLoans() {
+        LocalDate today = LocalDate.now();
+        runLateLoans(partition -> coordinator.reclaim(JOB_LATE_LOANS, partition, today), today);
+    }
+
+    @Scheduled(cron = CRON_REPAIR_AVAILABILITY)
+    public void repairBookAvailability() {
+        int repaired = bookService.repairAvailability();
+        if (repaired > 0) {
+            log.warn("Book availability repaired for {} books", repaired);
+        }
+    }
+
+    private void runLateLoans(IntFunction<Optional<JobPartition>> claim, LocalDate today) {
+        List<Integer> order = IntStream.range(0, partitions).boxed().collect(Collectors.toCollection(ArrayList::new));
+        Collections.shuffle(order);
+        for (int partition : order) {
+            claim.apply(partition).ifPresent(claimed -> sendPartition(claimed, today));
+        }
+    }
+
+    private void sendPartition(JobPartition claimed, LocalDate today) {
+        int partition = claimed.getPartition();
+        Long lastId = claimed.getLastId();
+        List<Loan> chunk;
+        while (!(chunk = loanService.getLateLoans(partition, partitions, lastId, chunkSize)).isEmpty()) {
+            sendChunk(chunk, today);
+            lastId = chunk.get(chunk.size() - 1).getId();
+            if (!coordinator.checkpoint(JOB_LATE_LOANS, partition, lastId)) {
+                log.warn("Lost the lease of late loans partition {} after loan id {}", partition, lastId);
+                return;
+            }
+        }
+        coordinator.complete(JOB_LATE_LOANS, partition);
+        log.info("Late loans partition {} completed for {}", partition, today);
+    }
+
+    /**
+     * Mails that could not be sent are queued in the outbox before the chunk is checkpointed, so the dispatcher
+     * retries them instead of the partition resuming past them.
+     */
+    private void sendChunk(List<Loan> chunk, LocalDate today) {
+        List<OutgoingMail> mails = new ArrayList<>(chunk.size());
+        Map<OutgoingMail, Loan> loans = new IdentityHashMap<>();
+        for (Loan loan : chunk) {
+            OutgoingMail mail = new OutgoingMail(loan.getCustomerEmail(), subject, personalize(loan, today));
+            mails.add(mail);
+            loans.put(mail, loan);
+        }
+        List<OutgoingMail> failed = mailEngine.send(mails);
+        if (!failed.isEmpty()) {
+            Map<Long, String> messages = new LinkedHashMap<>();
+            failed.forEach(mail -> messages.put(loans.get(mail).getId(), mail.getText()));
+            int queued = loanService.enqueueLateMails(today, messages);
+            log.warn("{} of {} late loan mails could not be sent, {} queued in the outbox for retry",
+                    failed.size(), mails.size(), queued);
+        }
+    }
 
-        emailService.sendMails(subject, message, mailsList);
+    private String personalize(Loan loan, LocalDate today) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("customer", loan.getCustomer());
+        values.put("book", loan.getBook().getTitle());
+        values.put("days", ChronoUnit.DAYS.between(loan.getDueDate(), today));
+        return template.render(values);
     }
 }
@@ -1,56 +1,189 @@
 package com.example.library.service.impl;
 
+import com.example.library.api.dto.BookImportResultDTO;
+import com.example.library.api.dto.BookSuggestionDTO;
+import com.example.library.config.CacheConfig;
 import com.example.library.exception.BusinessException;
 import com.example.library.model.entity.Book;
 import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.BookVersion;
 import com.example.library.service.BookService;
+import com.example.library.service.LibraryMetrics;
+import com.example.library.service.OptimisticLockRetry;
+import com.example.library.service.search.BookSearchIndex;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BookServiceImpl implements BookService {
+    private static final int EXPORT_CLEAR_INTERVAL = Integer.parseInt(BookRepository.EXPORT_FETCH_SIZE);
+
     private BookRepository repository;
+    private BookSearchIndex searchIndex;
+    private OptimisticLockRetry retry;
+    private LibraryMetrics metrics;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    public BookServiceImpl(BookRepository repository) {
+    public BookServiceImpl(BookRepository repository, BookSearchIndex searchIndex, OptimisticLockRetry retry,
+                           LibraryMetrics metrics) {
         this.repository = repository;
+        this.searchIndex = searchIndex;
+        this.retry = retry;
+        this.metrics = metrics;
     }
 
     @Override
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Book save(Book book) {
         if (repository.existsByIsbn(book.getIsbn())) {
+            metrics.bookDuplicatedIsbn();
             throw new BusinessException("Isbn já cadastrado.");
         }
 
-        return repository.save(book);
+        Book saved = repository.save(book);
+        searchIndex.index(saved);
+        metrics.bookCreated();
+        return saved;
     }
 
     @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public List<BookImportResultDTO> importBooks(List<Book> books) {
+        Set<String> isbns = books.stream().map(Book::getIsbn).collect(Collectors.toSet());
+        Set<String> taken = new HashSet<>(repository.findExistingIsbns(isbns));
+
+        List<BookImportResultDTO> results = new ArrayList<>(books.size());
+        List<Book> newBooks = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (taken.add(book.getIsbn())) {
+                newBooks.add(book);
+                results.add(BookImportResultDTO.builder()
+                        .isbn(book.getIsbn())
+                        .status(BookImportResultDTO.Status.CREATED)
+                        .build());
+            } else {
+                results.add(BookImportResultDTO.builder()
+                        .isbn(book.getIsbn())
+                        .status(BookImportResultDTO.Status.DUPLICATED)
+                        .message("Isbn já cadastrado.")
+                        .build());
+            }
+        }
+
+        repository.saveAll(newBooks);
+        repository.flush();
+        entityManager.clear();
+        newBooks.forEach(searchIndex::index);
+
+        Iterator<Book> saved = newBooks.iterator();
+        results.stream()
+                .filter(result -> result.getStatus() == BookImportResultDTO.Status.CREATED)
+                .forEach(result -> result.setId(saved.next().getId()));
+        return results;
+    }
+
+    @Override
+    @Cacheable(cacheNames = CacheConfig.BOOKS, key = "#id", unless = "#result == null")
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Optional<Book> getById(Long id) {
         return repository.findById(id);
     }
 
     @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Optional<BookVersion> getVersion(Long id) {
+        return repository.findVersionById(id);
+    }
+
+    @Override
+    @CachePut(cacheNames = CacheConfig.BOOKS, key = "#id", unless = "#result == null")
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Optional<Book> refresh(Long id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, key = "#book.id"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null")
+    })
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public void delete(Book book) {
         if (book == null || book.getId() == null) {
             throw new IllegalArgumentException("ID do livro não foi informado.");
         }
         repository.delete(book);
+        searchIndex.remove(book.getId());
     }
 
     @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, key = "#book.id", beforeInvocation = true),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null", beforeInvocation = true)
+    })
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Book update(Book book) {
         if (book == null || book.getId() == null) {
             throw new IllegalArgumentException("ID do livro não foi informado.");
         }
-        return repository.save(book);
+        Book updated = repository.save(book);
+        searchIndex.index(updated);
+        return updated;
     }
 
+    /**
+     * Applies the changes to the current row of the book and saves it, reading it again and reapplying them when a
+     * concurrent checkout, return or edit bumped the version in between.
+     */
     @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, key = "#id"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#result.isbn", condition = "#result != null")
+    })
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Optional<Book> update(Long id, Consumer<Book> changes) {
+        Optional<Book> updated = retry.execute(() -> repository.findById(id).map(book -> {
+            changes.accept(book);
+            return repository.saveAndFlush(book);
+        }));
+        updated.ifPresent(searchIndex::index);
+        return updated;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Page<Book> find(Book filter, Pageable pageRequest) {
         Example<Book> example = Example.of(filter,
                 ExampleMatcher
@@ -62,7 +195,91 @@ public class BookServiceImpl implements BookService {
     }
 
     @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Page<Book> search(String query, Pageable pageRequest) {
+        Page<Long> ids = searchIndex.search(query, pageRequest);
+        if (ids.isEmpty()) {
+            return new PageImpl<>(Collections.emptyList(), pageRequest, ids.getTotalElements());
+        }
+
+        Map<Long, Book> books = repository.findAllById(ids.getContent())
+                .stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        List<Book> content = new ArrayList<>(books.size());
+        for (Long id : ids.getContent()) {
+            Book book = books.get(id);
+            if (book != null) {
+                content.add(book);
+            } else {
+                searchIndex.remove(id);
+            }
+        }
+        return new PageImpl<>(content, pageRequest, ids.getTotalElements());
+    }
+
+    @Override
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public List<BookSuggestionDTO> suggest(String prefix, int size) {
+        return searchIndex.suggest(prefix, size);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Slice<Book> findAfter(Book filter, String lastIsbn, Long lastId, int size) {
+        return repository.findAfter(
+                startingWith(filter.getTitle()),
+                startingWith(filter.getAuthor()),
+                startingWith(filter.getIsbn()),
+                lastIsbn,
+                lastId,
+                PageRequest.of(0, size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public void export(Book filter, Consumer<Book> consumer) {
+        try (Stream<Book> books = repository.streamAll(
+                startingWith(filter.getTitle()),
+                startingWith(filter.getAuthor()),
+                startingWith(filter.getIsbn()))) {
+            int exported = 0;
+            for (Iterator<Book> it = books.iterator(); it.hasNext(); ) {
+                consumer.accept(it.next());
+                if (++exported % EXPORT_CLEAR_INTERVAL == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    @Cacheable(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#isbn", unless = "#result == null")
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Optional<Book> getBookByIsbn(String isbn) {
         return repository.findByIsbn(isbn);
     }
+
+    @Override
+    @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, allEntries = true),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, allEntries = true)
+    })
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public int repairAvailability() {
+        return repository.clearStaleActiveLoans() + repository.fillMissingActiveLoans();
+    }
+
+    private static String startingWith(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.toLowerCase()
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_") + "%";
+    }
 }
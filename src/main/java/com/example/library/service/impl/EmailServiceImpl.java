@@ -1,6 +1,8 @@
 package com.example.library.service.impl;
 
 import com.example.library.service.EmailService;
+import com.example.library.service.LibraryMetrics;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.SimpleMailMessage;
@@ -14,18 +16,34 @@ import java.util.List;
 public class EmailServiceImpl implements EmailService {
     private final JavaMailSender javaMailSender;
 
-    @Value("{application.mail.default-remetent}")
+    @Value("${application.mail.default-remetent}")
     private String remetent;
 
     @Override
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public void sendMails(String subject, String message, List<String> mailsList) {
-        String[] mails = mailsList.toArray(new String[mailsList.size()]);
+        SimpleMailMessage[] mailMessages = mailsList.stream()
+                .map(mail -> {
+                    SimpleMailMessage mailMessage = new SimpleMailMessage();
+                    mailMessage.setFrom(remetent);
+                    mailMessage.setSubject(subject);
+                    mailMessage.setText(message);
+                    mailMessage.setTo(mail);
+                    return mailMessage;
+                })
+                .toArray(SimpleMailMessage[]::new);
 
+        javaMailSender.send(mailMessages);
+    }
+
+    @Override
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public void sendMail(String subject, String message, String mail) {
         SimpleMailMessage mailMessage = new SimpleMailMessage();
         mailMessage.setFrom(remetent);
         mailMessage.setSubject(subject);
         mailMessage.setText(message);
-        mailMessage.setTo(mails);
+        mailMessage.setTo(mail);
 
         javaMailSender.send(mailMessage);
     }
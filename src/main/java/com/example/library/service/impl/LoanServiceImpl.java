@@ -1,59 +1,374 @@
 package com.example.library.service.impl;
 
 import com.example.library.api.dto.LoanFilterDTO;
+import com.example.library.api.dto.ReturnLoansResultDTO;
+import com.example.library.config.CacheConfig;
 import com.example.library.exception.BusinessException;
 import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
+import com.example.library.model.entity.OutboxEvent;
+import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.LoanHistoryRow;
 import com.example.library.model.repository.LoanRepository;
+import com.example.library.model.repository.OutboxEventRepository;
+import com.example.library.service.LibraryMetrics;
+import com.example.library.service.LoanPolicy;
 import com.example.library.service.LoanService;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class LoanServiceImpl implements LoanService {
+    private static final int EXPORT_CLEAR_INTERVAL = Integer.parseInt(LoanRepository.EXPORT_FETCH_SIZE);
+
     private LoanRepository repository;
+    private BookRepository bookRepository;
+    private CacheManager cacheManager;
+    private OutboxEventRepository outboxRepository;
+    private LoanPolicy policy;
+    private LibraryMetrics metrics;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    public LoanServiceImpl(LoanRepository repository) {
+    public LoanServiceImpl(LoanRepository repository, BookRepository bookRepository, CacheManager cacheManager,
+                           OutboxEventRepository outboxRepository, LoanPolicy policy, LibraryMetrics metrics) {
         this.repository = repository;
+        this.bookRepository = bookRepository;
+        this.cacheManager = cacheManager;
+        this.outboxRepository = outboxRepository;
+        this.policy = policy;
+        this.metrics = metrics;
     }
 
     @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Loan save(Loan loan) throws BusinessException {
-        if (repository.existsByBookAndNotReturned(loan.getBook())) {
+        if (bookRepository.existsByIdAndActiveLoanIdIsNotNull(loan.getBook().getId())) {
+            metrics.loanAlreadyLent();
+            throw new BusinessException("Livro já emprestado.");
+        }
+        if (loan.getLoanDate() != null) {
+            loan.setDueDate(policy.dueDate(loan.getLoanDate()));
+        }
+        try {
+            Loan saved = this.repository.save(loan);
+            bookRepository.markLent(loan.getBook().getId(), saved.getId());
+            outboxRepository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), Collections.singleton(saved.getId()));
+            evict(loan.getBook());
+            metrics.loanCreated();
+            return saved;
+        } catch (DataIntegrityViolationException ex) {
+            metrics.loanAlreadyLent();
             throw new BusinessException("Livro já emprestado.");
         }
-        return this.repository.save(loan);
     }
 
     @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Long checkout(String isbn, String customer, String customerEmail) throws BusinessException {
+        Optional<Loan> loan;
+        try {
+            LocalDate today = LocalDate.now();
+            loan = repository.checkout(isbn, customer, customerEmail, today, policy.dueDate(today));
+        } catch (DataIntegrityViolationException ex) {
+            metrics.loanAlreadyLent();
+            throw new BusinessException("Livro já emprestado.");
+        }
+        if (!loan.isPresent()) {
+            if (bookRepository.existsByIsbn(isbn)) {
+                metrics.loanAlreadyLent();
+                throw new BusinessException("Livro já emprestado.");
+            }
+            metrics.loanBookNotFound();
+            throw new BusinessException("Livro não encontrado para o Isbn informado.");
+        }
+        outboxRepository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), Collections.singleton(loan.get().getId()));
+        evict(loan.get().getBook());
+        metrics.loanCreated();
+        return loan.get().getId();
+    }
+
+    @Override
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Optional<Loan> getById(Long id) {
         return repository.findById(id);
     }
 
     @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Loan update(Loan loan) {
-        return repository.save(loan);
+        // a returned loan stays returned: its book may be lent again already and no longer carries it as active loan
+        if (!Boolean.TRUE.equals(loan.getReturned())
+                && repository.findNotReturnedIds(Collections.singleton(loan.getId())).isEmpty()) {
+            throw new BusinessException("Empréstimo já devolvido.");
+        }
+        Loan updated = repository.save(loan);
+        if (Boolean.TRUE.equals(updated.getReturned())) {
+            if (bookRepository.markAvailable(Collections.singleton(updated.getId())) > 0) {
+                evict(updated.getBook());
+            }
+            outboxRepository.enqueue(OutboxEvent.Type.LOAN_RETURNED.name(), Collections.singleton(updated.getId()));
+        }
+        return updated;
     }
 
     @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public ReturnLoansResultDTO returnLoans(List<Long> ids, List<String> isbns) {
+        ReturnLoansResultDTO result = new ReturnLoansResultDTO();
+        Set<Long> returning = new LinkedHashSet<>();
+        Set<Long> notReturned = ids.isEmpty() ? Collections.emptySet() : repository.findNotReturnedIds(ids);
+        Map<Long, String> lentIsbns = new HashMap<>();
+
+        if (!ids.isEmpty()) {
+            returning.addAll(notReturned);
+
+            List<Long> others = ids.stream()
+                    .filter(id -> !notReturned.contains(id))
+                    .distinct()
+                    .collect(Collectors.toList());
+            if (!others.isEmpty()) {
+                Set<Long> existing = repository.findExistingIds(others);
+                others.forEach(id -> (existing.contains(id)
+                        ? result.getAlreadyReturnedIds()
+                        : result.getUnknownIds()).add(id));
+            }
+        }
+
+        if (!isbns.isEmpty()) {
+            repository.findNotReturnedByBookIsbns(isbns).forEach(loan -> {
+                returning.add(loan.getId());
+                lentIsbns.put(loan.getId(), loan.getBook().getIsbn());
+            });
+
+            Set<String> lent = new HashSet<>(lentIsbns.values());
+            List<String> others = isbns.stream()
+                    .filter(isbn -> !lent.contains(isbn))
+                    .distinct()
+                    .collect(Collectors.toList());
+            if (!others.isEmpty()) {
+                Set<String> known = bookRepository.findExistingIsbns(others);
+                others.forEach(isbn -> (known.contains(isbn)
+                        ? result.getNotLentIsbns()
+                        : result.getUnknownIsbns()).add(isbn));
+            }
+        }
+
+        if (!returning.isEmpty()) {
+            Set<Long> locked = repository.lockNotReturnedIds(returning);
+            for (Iterator<Long> it = returning.iterator(); it.hasNext(); ) {
+                Long id = it.next();
+                if (!locked.contains(id)) {
+                    it.remove();
+                    if (notReturned.contains(id)) {
+                        result.getAlreadyReturnedIds().add(id);
+                    }
+                    if (lentIsbns.containsKey(id)) {
+                        result.getNotLentIsbns().add(lentIsbns.get(id));
+                    }
+                }
+            }
+        }
+
+        if (!returning.isEmpty()) {
+            List<Book> released = bookRepository.findByActiveLoanIdIn(returning);
+            repository.markReturned(returning);
+            bookRepository.markAvailable(returning);
+            outboxRepository.enqueue(OutboxEvent.Type.LOAN_RETURNED.name(), returning);
+            released.forEach(this::evict);
+        }
+        result.getReturned().addAll(returning);
+
+        metrics.loansReturned(result.getReturned().size(),
+                result.getAlreadyReturnedIds().size() + result.getNotLentIsbns().size(),
+                result.getUnknownIds().size() + result.getUnknownIsbns().size());
+        return result;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public Page<Loan> find(LoanFilterDTO filter, Pageable pageRequest) {
+        if (Boolean.TRUE.equals(filter.getHistory())) {
+            return repository.findWithHistoryByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), byId(pageRequest))
+                    .map(LoanServiceImpl::toLoan);
+        }
         return repository.findByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), pageRequest);
     }
 
     @Override
-    public Page<Loan> getLoansByBook(Book book, Pageable pageRequest) {
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public void export(LoanFilterDTO filter, Consumer<Loan> consumer) {
+        try (Stream<Loan> loans = repository.streamByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer())) {
+            int exported = 0;
+            for (Iterator<Loan> it = loans.iterator(); it.hasNext(); ) {
+                consumer.accept(it.next());
+                if (++exported % EXPORT_CLEAR_INTERVAL == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Slice<Loan> findAfter(LoanFilterDTO filter, Long lastId, int size) {
+        if (Boolean.TRUE.equals(filter.getHistory())) {
+            return repository.findWithHistoryByBookIsbnOrCustomerAfter(
+                    filter.getIsbn(), filter.getCustomer(), lastId, PageRequest.of(0, size)).map(LoanServiceImpl::toLoan);
+        }
+        return repository.findByBookIsbnOrCustomerAfter(
+                filter.getIsbn(), filter.getCustomer(), lastId, PageRequest.of(0, size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Page<Loan> getLoansByBook(Book book, boolean history, Pageable pageRequest) {
+        if (history) {
+            return repository.findWithHistoryByBook(book.getId(), byId(pageRequest)).map(LoanServiceImpl::toLoan);
+        }
         return repository.findByBook(book, pageRequest);
     }
 
     @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public Slice<Loan> getLoansByBookAfter(Book book, boolean history, Long lastId, int size) {
+        if (history) {
+            return repository.findWithHistoryByBookAfter(book.getId(), lastId, PageRequest.of(0, size))
+                    .map(LoanServiceImpl::toLoan);
+        }
+        return repository.findByBookAfter(book, lastId, PageRequest.of(0, size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
     public List<Loan> getAllLateLoans() {
-        final Integer loanDays = 5;
-        LocalDate daysAgo = LocalDate.now().minusDays(loanDays);
-        return repository.findByLoanDateLessThanAndNotReturned(daysAgo);
+        return repository.findDueBeforeAndNotReturned(LocalDate.now().plusDays(1));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public List<Loan> getLateLoans(int partition, int partitions, Long lastId, int size) {
+        return repository.findLateLoansAfter(LocalDate.now(), partition, partitions, lastId, PageRequest.of(0, size));
+    }
+
+    @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public int notifyOverdue(Collection<Long> ids) {
+        Set<Long> active = repository.findNotReturnedIds(ids);
+        if (active.isEmpty()) {
+            return 0;
+        }
+        int notified = outboxRepository.enqueue(OutboxEvent.Type.LOAN_OVERDUE.name(), active);
+        metrics.loansOverdue(notified);
+        return notified;
+    }
+
+    @Override
+    @Transactional
+    public int enqueueLateMails(LocalDate day, Map<Long, String> messages) {
+        String type = OutboxEvent.Type.LOAN_LATE.name();
+        int enqueued = 0;
+        for (Map.Entry<Long, String> message : messages.entrySet()) {
+            String dedupKey = type + ":" + message.getKey() + ":" + day;
+            enqueued += outboxRepository.enqueueMessage(type, dedupKey, message.getKey(), message.getValue());
+        }
+        return enqueued;
+    }
+
+    @Override
+    @Transactional
+    @Timed(value = LibraryMetrics.SERVICE_TIMER, histogram = true)
+    public List<Long> archiveReturned(Instant returnedBefore, int size) {
+        List<Long> ids = repository.findArchivableIds(returnedBefore, PageRequest.of(0, size));
+        if (!ids.isEmpty()) {
+            // the active loan listings of these books change, so their version tags must too
+            List<Book> books = bookRepository.findByLoanIdIn(ids);
+            bookRepository.touch(books.stream().map(Book::getId).collect(Collectors.toSet()));
+            repository.copyToHistory(ids);
+            repository.deleteReturned(ids);
+            books.forEach(this::evict);
+            metrics.loansArchived(ids.size());
+        }
+        return ids;
+    }
+
+    /**
+     * The history queries are ordered by id in SQL, so any other requested order is rejected rather than ignored.
+     */
+    private static Pageable byId(Pageable pageRequest) {
+        if (pageRequest.getSort().isSorted() && !pageRequest.getSort().equals(Sort.by("id"))) {
+            throw new BusinessException("Empréstimos do histórico só podem ser ordenados por id.");
+        }
+        return PageRequest.of(pageRequest.getPageNumber(), pageRequest.getPageSize());
+    }
+
+    private static Loan toLoan(LoanHistoryRow row) {
+        return Loan.builder()
+                .id(row.getId())
+                .customer(row.getCustomer())
+                .customerEmail(row.getCustomerEmail())
+                .loanDate(row.getLoanDate())
+                .dueDate(row.getDueDate())
+                .returned(row.getReturned())
+                .book(Book.builder()
+                        .id(row.getBookId())
+                        .isbn(row.getIsbn())
+                        .title(row.getTitle())
+                        .author(row.getAuthor())
+                        .activeLoanId(row.getActiveLoanId())
+                        .build())
+                .build();
+    }
+
+    private void evict(Book book) {
+        evict(CacheConfig.BOOKS, book.getId());
+        evict(CacheConfig.BOOKS_BY_ISBN, book.getIsbn());
+    }
+
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null && key != null) {
+            cache.evict(key);
+        }
     }
 }
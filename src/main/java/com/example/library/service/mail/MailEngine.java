@@ -0,0 +1,153 @@
+package com.example.library.service.mail;
+
+import com.example.library.service.LibraryMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a batch of mails, one message per recipient, over a few SMTP connections that stay open for the whole batch
+ * instead of one connection per message. A connection that fails is reopened for the next message; a message that
+ * fails is counted and skipped.
+ */
+@Service
+@Slf4j
+public class MailEngine {
+    private final JavaMailSenderImpl mailSender;
+    private final MailThrottle throttle;
+    private final int connections;
+    private final String remetent;
+    private final LibraryMetrics metrics;
+
+    private ExecutorService executor;
+    private volatile double throughput;
+
+    public MailEngine(JavaMailSenderImpl mailSender,
+                      @Value("${application.mail.engine.connections:2}") int connections,
+                      @Value("${application.mail.engine.rate-per-second:10}") double ratePerSecond,
+                      @Value("${application.mail.default-remetent}") String remetent,
+                      LibraryMetrics metrics) {
+        this.mailSender = mailSender;
+        this.throttle = new MailThrottle(ratePerSecond);
+        this.connections = connections;
+        this.remetent = remetent;
+        this.metrics = metrics;
+        metrics.mailThroughput(this, MailEngine::getThroughput);
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Sends the mails and returns those that were not accepted by the SMTP server, including any left unsent when a
+     * worker was interrupted.
+     */
+    public List<OutgoingMail> send(List<OutgoingMail> mails) {
+        if (mails.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Queue<OutgoingMail> queue = new ConcurrentLinkedQueue<>(mails);
+        Queue<OutgoingMail> failed = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = executor();
+        long start = System.nanoTime();
+        List<CompletableFuture<Integer>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(connections, mails.size()); i++) {
+            workers.add(CompletableFuture.supplyAsync(() -> drain(queue, failed), executor));
+        }
+        int sent = workers.stream().mapToInt(CompletableFuture::join).sum();
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        throughput = sent * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        failed.addAll(queue);
+        return new ArrayList<>(failed);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private int drain(Queue<OutgoingMail> queue, Queue<OutgoingMail> failed) {
+        Transport transport = null;
+        int sent = 0;
+        try {
+            OutgoingMail mail;
+            while ((mail = queue.poll()) != null) {
+                throttle.acquire();
+                try {
+                    MimeMessage message = toMessage(mail);
+                    if (transport == null || !transport.isConnected()) {
+                        close(transport);
+                        transport = connect();
+                    }
+                    transport.sendMessage(message, message.getAllRecipients());
+                    metrics.mailSent();
+                    sent++;
+                } catch (MessagingException | RuntimeException ex) {
+                    failed.add(mail);
+                    metrics.mailFailed();
+                    log.error("Failed to mail {}", mail.getRecipient(), ex);
+                    close(transport);
+                    transport = null;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(transport);
+        }
+        return sent;
+    }
+
+    private MimeMessage toMessage(OutgoingMail mail) throws MessagingException {
+        MimeMessageHelper helper = new MimeMessageHelper(mailSender.createMimeMessage(), "UTF-8");
+        helper.setFrom(remetent);
+        helper.setTo(mail.getRecipient());
+        helper.setSubject(mail.getSubject());
+        helper.setText(mail.getText());
+        MimeMessage message = helper.getMimeMessage();
+        message.saveChanges();
+        return message;
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = mailSender.getSession().getTransport(mailSender.getProtocol());
+        transport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword());
+        return transport;
+    }
+
+    private static void close(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException ex) {
+                log.debug("Failed to close SMTP connection", ex);
+            }
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(connections);
+        }
+        return executor;
+    }
+}
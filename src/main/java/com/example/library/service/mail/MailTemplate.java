@@ -0,0 +1,54 @@
+package com.example.library.service.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A text with {@code {name}} placeholders, split once into literals and variables so that rendering it per recipient
+ * is a single pass over the parts.
+ */
+public final class MailTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(\\w+)}");
+
+    private final String[] literals;
+    private final String[] variables;
+
+    private MailTemplate(String[] literals, String[] variables) {
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    public static MailTemplate compile(String source, String... allowed) {
+        Set<String> known = new HashSet<>(Arrays.asList(allowed));
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int last = 0;
+        while (matcher.find()) {
+            String variable = matcher.group(1);
+            if (!known.contains(variable)) {
+                throw new IllegalArgumentException("Unknown template variable: " + variable);
+            }
+            literals.add(source.substring(last, matcher.start()));
+            variables.add(variable);
+            last = matcher.end();
+        }
+        literals.add(source.substring(last));
+        return new MailTemplate(literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    public String render(Map<String, ?> values) {
+        StringBuilder text = new StringBuilder(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            Object value = values.get(variables[i]);
+            text.append(value == null ? "" : value).append(literals[i + 1]);
+        }
+        return text.toString();
+    }
+}
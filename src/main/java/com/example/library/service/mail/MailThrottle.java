@@ -0,0 +1,30 @@
+package com.example.library.service.mail;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces sends evenly so that all connections together stay under the provider's rate limit. A rate of zero or less
+ * disables throttling.
+ */
+class MailThrottle {
+    private final long intervalNanos;
+    private long next;
+
+    MailThrottle(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+        this.next = System.nanoTime();
+    }
+
+    void acquire() throws InterruptedException {
+        long wait = reserve(System.nanoTime());
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    synchronized long reserve(long now) {
+        long slot = Math.max(next, now);
+        next = slot + intervalNanos;
+        return slot - now;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.library.service.mail;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@Getter
+@RequiredArgsConstructor
+@ToString
+public class OutgoingMail {
+    private final String recipient;
+    private final String subject;
+    private final String text;
+}
@@ -0,0 +1,290 @@
+package com.example.library.service.search;
+
+import com.example.library.api.dto.BookSuggestionDTO;
+import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory full-text index over book titles and authors. It is built from the database at startup, updated after
+ * each local commit and caught up with the books changed on other instances every
+ * {@code application.books.search.sync-ms}. Books deleted elsewhere are dropped when a search no longer finds them.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BookSearchIndex {
+    public static final int MAX_SUGGESTIONS = 10;
+    static final float TITLE_WEIGHT = 2f;
+    static final float AUTHOR_WEIGHT = 1f;
+    static final double PREFIX_PENALTY = 0.5;
+    static final String TITLE = "title";
+    static final String AUTHOR = "author";
+    private static final int REBUILD_PAGE_SIZE = 1000;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final BookRepository repository;
+
+    @Value("${application.books.search.sync-grace-ms:60000}")
+    private long syncGraceMillis;
+
+    private final NavigableMap<String, Map<Long, Float>> postings = new TreeMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private SuggestTrie suggestions = new SuggestTrie(MAX_SUGGESTIONS);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Instant syncedAt;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        Instant startedAt = Instant.now();
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documents.clear();
+            suggestions = new SuggestTrie(MAX_SUGGESTIONS);
+
+            Slice<Book> slice;
+            Long lastId = 0L;
+            do {
+                slice = repository.findByIdGreaterThan(lastId, PageRequest.of(0, REBUILD_PAGE_SIZE, Sort.by("id")));
+                for (Book book : slice) {
+                    put(book.getId(), book.getTitle(), book.getAuthor(), true);
+                    lastId = book.getId();
+                }
+            } while (slice.hasNext());
+            suggestions.rankAll();
+            syncedAt = startedAt;
+            log.info("Book search index built with {} books, {} terms and {} suggestions",
+                    documents.size(), postings.size(), suggestions.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.books.search.sync-ms:60000}")
+    public int sync() {
+        if (syncedAt == null) {
+            return 0;
+        }
+        Instant startedAt = Instant.now();
+        Instant since = syncedAt.minusMillis(syncGraceMillis);
+        int changed = 0;
+        Long lastId = 0L;
+        List<Book> books;
+        while (!(books = repository.findChangedAfter(since, lastId, PageRequest.of(0, REBUILD_PAGE_SIZE))).isEmpty()) {
+            lock.writeLock().lock();
+            try {
+                for (Book book : books) {
+                    if (refresh(book)) {
+                        changed++;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            lastId = books.get(books.size() - 1).getId();
+        }
+        syncedAt = startedAt;
+        if (changed > 0) {
+            log.info("Book search index caught up with {} changed books", changed);
+        }
+        return changed;
+    }
+
+    public void index(Book book) {
+        Long id = book.getId();
+        String title = book.getTitle();
+        String author = book.getAuthor();
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                put(id, title, author, false);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void remove(Long id) {
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                evict(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public Page<Long> search(String query, Pageable pageable) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return Page.empty(pageable);
+        }
+
+        Map<Long, Double> scores;
+        lock.readLock().lock();
+        try {
+            scores = score(tokens.get(0), tokens.size() == 1);
+            for (int i = 1; i < tokens.size() && !scores.isEmpty(); i++) {
+                Map<Long, Double> termScores = score(tokens.get(i), i == tokens.size() - 1);
+                scores.keySet().retainAll(termScores.keySet());
+                scores.replaceAll((id, score) -> score + termScores.get(id));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Long> content = scores.entrySet()
+                .stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        return new PageImpl<>(content, pageable, scores.size());
+    }
+
+    public List<BookSuggestionDTO> suggest(String prefix, int size) {
+        lock.readLock().lock();
+        try {
+            return suggestions.complete(prefix, Math.min(size, MAX_SUGGESTIONS))
+                    .stream()
+                    .map(s -> BookSuggestionDTO.builder().text(s.text).field(s.field).books(s.books).build())
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private Map<Long, Double> score(String token, boolean prefix) {
+        Map<String, Map<Long, Float>> matches = prefix
+                ? postings.subMap(token, true, token + Character.MAX_VALUE, false)
+                : postings.containsKey(token) ? Collections.singletonMap(token, postings.get(token)) : Collections.emptyMap();
+
+        Map<Long, Double> scores = new HashMap<>();
+        double total = documents.size();
+        matches.forEach((term, books) -> {
+            double idf = Math.log(1 + total / books.size());
+            double factor = term.equals(token) ? idf : idf * PREFIX_PENALTY;
+            books.forEach((id, weight) -> scores.merge(id, weight * factor, Math::max));
+        });
+        return scores;
+    }
+
+    private boolean refresh(Book book) {
+        Document document = documents.get(book.getId());
+        if (document != null && Objects.equals(document.title, book.getTitle())
+                && Objects.equals(document.author, book.getAuthor())) {
+            return false;
+        }
+        put(book.getId(), book.getTitle(), book.getAuthor(), false);
+        return true;
+    }
+
+    private void put(Long id, String title, String author, boolean bulk) {
+        evict(id);
+
+        Map<String, Float> weights = new HashMap<>();
+        tokenize(title).forEach(term -> weights.merge(term, TITLE_WEIGHT, Float::sum));
+        tokenize(author).forEach(term -> weights.merge(term, AUTHOR_WEIGHT, Float::sum));
+        if (weights.isEmpty()) {
+            return;
+        }
+
+        weights.forEach((term, weight) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, weight));
+        documents.put(id, new Document(title, author, weights.keySet().toArray(new String[0])));
+        if (bulk) {
+            suggestions.load(TITLE, title);
+            suggestions.load(AUTHOR, author);
+        } else {
+            suggestions.add(TITLE, title);
+            suggestions.add(AUTHOR, author);
+        }
+    }
+
+    private void evict(Long id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        suggestions.remove(TITLE, document.title);
+        suggestions.remove(AUTHOR, document.author);
+        for (String term : document.terms) {
+            Map<Long, Float> books = postings.get(term);
+            books.remove(id);
+            if (books.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class Document {
+        final String title;
+        final String author;
+        final String[] terms;
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+}
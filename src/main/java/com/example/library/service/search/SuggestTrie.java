@@ -0,0 +1,380 @@
+package com.example.library.service.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class SuggestTrie {
+    static final int MIN_WORD_LENGTH = 3;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Suggestion[] NO_SUGGESTIONS = new Suggestion[0];
+    private static final Comparator<Suggestion> RANKING = Comparator
+            .comparingInt((Suggestion s) -> s.books).reversed()
+            .thenComparing(s -> s.normalized)
+            .thenComparing(s -> s.field);
+
+    private final int capacity;
+    private final Node root = new Node("", 0, 0);
+    private final Map<String, Suggestion> suggestions = new HashMap<>();
+
+    SuggestTrie(int capacity) {
+        this.capacity = capacity;
+    }
+
+    int size() {
+        return suggestions.size();
+    }
+
+    void add(String field, String text) {
+        Suggestion suggestion = attach(field, text);
+        if (suggestion != null) {
+            for (int offset : suggestion.offsets) {
+                promote(path(suggestion.normalized, offset), suggestion);
+            }
+        }
+    }
+
+    void load(String field, String text) {
+        attach(field, text);
+    }
+
+    void rankAll() {
+        rankAll(root);
+    }
+
+    void remove(String field, String text) {
+        String normalized = normalize(text);
+        Suggestion suggestion = suggestions.get(field + ':' + normalized);
+        if (suggestion == null) {
+            return;
+        }
+        if (--suggestion.books == 0) {
+            suggestions.remove(field + ':' + normalized);
+            for (int offset : suggestion.offsets) {
+                List<Node> path = path(normalized, offset);
+                Node last = path.get(path.size() - 1);
+                last.terminals = Arrays.stream(last.terminals).filter(s -> s != suggestion).toArray(Suggestion[]::new);
+                prune(path);
+            }
+        }
+        // the paths of the offsets share nodes, so each is reranked only once the whole tree is updated
+        for (int offset : suggestion.offsets) {
+            List<Node> path = trace(normalized, offset);
+            for (int i = path.size() - 1; i >= 0; i--) {
+                rank(path.get(i));
+            }
+        }
+    }
+
+    List<Suggestion> complete(String prefix, int size) {
+        String key = normalize(prefix);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                return Collections.emptyList();
+            }
+            int common = child.common(key, i);
+            if (common < child.length() && i + common < key.length()) {
+                return Collections.emptyList();
+            }
+            node = child;
+            i += common;
+        }
+
+        Suggestion[] ranked = node.top != null ? node.top : best(collect(node, new HashSet<>()));
+        return Arrays.asList(ranked).subList(0, Math.min(size, ranked.length));
+    }
+
+    static String normalize(String text) {
+        return String.join(" ", BookSearchIndex.tokenize(text));
+    }
+
+    private Suggestion attach(String field, String text) {
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        Suggestion suggestion = suggestions.get(field + ':' + normalized);
+        if (suggestion == null) {
+            suggestion = new Suggestion(field, text, normalized);
+            suggestions.put(field + ':' + normalized, suggestion);
+            for (int offset : suggestion.offsets) {
+                insert(normalized, offset, suggestion);
+            }
+        }
+        suggestion.books++;
+        return suggestion;
+    }
+
+    private void insert(String key, int offset, Suggestion suggestion) {
+        Node node = root;
+        int i = offset;
+        while (i < key.length()) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                Node leaf = new Node(key, i, key.length());
+                leaf.terminals = new Suggestion[]{suggestion};
+                node.addChild(leaf);
+                return;
+            }
+            int common = child.common(key, i);
+            if (common < child.length()) {
+                Node middle = new Node(child.source, child.start, child.start + common);
+                node.replaceChild(child, middle);
+                child.start += common;
+                middle.children = new Node[]{child};
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        node.terminals = Arrays.copyOf(node.terminals, node.terminals.length + 1);
+        node.terminals[node.terminals.length - 1] = suggestion;
+    }
+
+    private List<Node> path(String key, int offset) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        for (int i = offset; i < key.length(); i += node.length()) {
+            node = node.child(key.charAt(i));
+            path.add(node);
+        }
+        return path;
+    }
+
+    private List<Node> trace(String key, int offset) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        for (int i = offset; i < key.length(); i += node.length()) {
+            node = node.child(key.charAt(i));
+            if (node == null) {
+                break;
+            }
+            path.add(node);
+            if (node.common(key, i) < node.length()) {
+                break;
+            }
+        }
+        return path;
+    }
+
+    private void prune(List<Node> path) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            if (node.terminals.length > 0) {
+                return;
+            }
+            if (node.children.length == 0) {
+                path.get(i - 1).removeChild(node);
+                path.remove(i);
+            } else if (node.children.length == 1) {
+                node.absorb(node.children[0]);
+            }
+        }
+    }
+
+    private void promote(List<Node> path, Suggestion promoted) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            Suggestion[] top = node.top;
+            if (!count(node)) {
+                node.top = null;
+            } else if (top == null) {
+                node.top = best(candidates(node));
+            } else {
+                node.top = promote(top, promoted);
+            }
+        }
+    }
+
+    private void rankAll(Node node) {
+        for (Node child : node.children) {
+            rankAll(child);
+        }
+        rank(node);
+    }
+
+    private void rank(Node node) {
+        node.top = count(node) ? best(candidates(node)) : null;
+    }
+
+    private boolean count(Node node) {
+        int count = node.terminals.length;
+        for (Node child : node.children) {
+            count += child.count;
+        }
+        node.count = count;
+        return count > capacity;
+    }
+
+    private Set<Suggestion> candidates(Node node) {
+        Set<Suggestion> candidates = new HashSet<>(Arrays.asList(node.terminals));
+        for (Node child : node.children) {
+            if (child.top != null) {
+                candidates.addAll(Arrays.asList(child.top));
+            } else {
+                collect(child, candidates);
+            }
+        }
+        return candidates;
+    }
+
+    private static Set<Suggestion> collect(Node node, Set<Suggestion> into) {
+        into.addAll(Arrays.asList(node.terminals));
+        for (Node child : node.children) {
+            collect(child, into);
+        }
+        return into;
+    }
+
+    private Suggestion[] best(Collection<Suggestion> candidates) {
+        Suggestion[] ranked = new Suggestion[Math.min(capacity, candidates.size())];
+        int size = 0;
+        for (Suggestion candidate : candidates) {
+            if (size == ranked.length && RANKING.compare(candidate, ranked[size - 1]) >= 0) {
+                continue;
+            }
+            int at = -Arrays.binarySearch(ranked, 0, size, candidate, RANKING) - 1;
+            System.arraycopy(ranked, at, ranked, at + 1, Math.min(size, ranked.length - 1) - at);
+            ranked[at] = candidate;
+            size = Math.min(size + 1, ranked.length);
+        }
+        return ranked;
+    }
+
+    private Suggestion[] promote(Suggestion[] top, Suggestion suggestion) {
+        List<Suggestion> ranked = new ArrayList<>(top.length + 1);
+        for (Suggestion s : top) {
+            if (s != suggestion) {
+                ranked.add(s);
+            }
+        }
+        ranked.add(-Collections.binarySearch(ranked, suggestion, RANKING) - 1, suggestion);
+        return ranked.subList(0, Math.min(capacity, ranked.size())).toArray(NO_SUGGESTIONS);
+    }
+
+    static final class Suggestion {
+        final String field;
+        final String text;
+        final String normalized;
+        final int[] offsets;
+        int books;
+
+        Suggestion(String field, String text, String normalized) {
+            this.field = field;
+            this.text = text;
+            this.normalized = normalized;
+            this.offsets = wordOffsets(normalized);
+        }
+
+        private static int[] wordOffsets(String normalized) {
+            List<Integer> offsets = new ArrayList<>();
+            offsets.add(0);
+            for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+                int next = normalized.indexOf(' ', i + 1);
+                int length = (next < 0 ? normalized.length() : next) - i - 1;
+                if (length >= MIN_WORD_LENGTH) {
+                    offsets.add(i + 1);
+                }
+            }
+            return offsets.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private static final class Node {
+        String source;
+        int start;
+        int end;
+        Node[] children = NO_CHILDREN;
+        Suggestion[] terminals = NO_SUGGESTIONS;
+        Suggestion[] top;
+        int count;
+
+        Node(String source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        int length() {
+            return end - start;
+        }
+
+        int common(String key, int from) {
+            int n = 0;
+            while (n < length() && from + n < key.length() && source.charAt(start + n) == key.charAt(from + n)) {
+                n++;
+            }
+            return n;
+        }
+
+        Node child(char first) {
+            int index = indexOf(first);
+            return index < 0 ? null : children[index];
+        }
+
+        void addChild(Node child) {
+            int insertion = -indexOf(child.source.charAt(child.start)) - 1;
+            Node[] copy = new Node[children.length + 1];
+            System.arraycopy(children, 0, copy, 0, insertion);
+            copy[insertion] = child;
+            System.arraycopy(children, insertion, copy, insertion + 1, children.length - insertion);
+            children = copy;
+        }
+
+        void replaceChild(Node child, Node replacement) {
+            children[indexOf(child.source.charAt(child.start))] = replacement;
+        }
+
+        void removeChild(Node child) {
+            int index = indexOf(child.source.charAt(child.start));
+            Node[] copy = new Node[children.length - 1];
+            System.arraycopy(children, 0, copy, 0, index);
+            System.arraycopy(children, index + 1, copy, index, children.length - index - 1);
+            children = copy;
+        }
+
+        void absorb(Node child) {
+            start = child.start - length();
+            source = child.source;
+            end = child.end;
+            children = child.children;
+            terminals = child.terminals;
+            top = child.top;
+            count = child.count;
+        }
+
+        private int indexOf(char first) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char key = children[middle].source.charAt(children[middle].start);
+                if (key < first) {
+                    low = middle + 1;
+                } else if (key > first) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Book ids move from identity to a pooled sequence so inserts can be batched. Hibernate's
+ * pooled optimizer treats each value as the upper bound of a block of {@link #ALLOCATION_SIZE}
+ * ids, so the sequence starts one block above the highest existing id.
+ */
+public class V3__Create_book_sequence extends BaseJavaMigration {
+    private static final int ALLOCATION_SIZE = 50;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            long start;
+            try (ResultSet resultSet = statement.executeQuery("select coalesce(max(id), 0) from book")) {
+                resultSet.next();
+                start = resultSet.getLong(1) + ALLOCATION_SIZE;
+            }
+            statement.execute("create sequence book_seq start with " + start + " increment by " + ALLOCATION_SIZE);
+        }
+    }
+}
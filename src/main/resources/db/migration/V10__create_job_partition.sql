@@ -0,0 +1,12 @@
+-- Progress and lease of each partition of a scheduled job, shared by every instance; replaces job_checkpoint.
+create table job_partition (
+    job varchar(64) not null,
+    partition_no int not null,
+    run_date date,
+    last_id bigint default 0 not null,
+    completed boolean default false not null,
+    owner varchar(128),
+    lease_until timestamp,
+    primary key (job, partition_no)
+);
+drop table job_checkpoint;
@@ -0,0 +1,10 @@
+-- Due date set from the loan policy at checkout; existing loans keep the 5 days that used to be hard-coded.
+alter table loan add column due_date date;
+update loan set due_date = dateadd('DAY', 5, loan_date);
+
+-- late loans scan: due_date range over active loans, keyset on id
+drop index ix_loan_late;
+create index ix_loan_due on loan (returned, due_date, id);
+
+-- OverdueTracker: loans changed since its previous poll
+create index ix_loan_updated_at on loan (updated_at);
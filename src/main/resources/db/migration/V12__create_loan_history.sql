@@ -0,0 +1,20 @@
+-- Returned loans moved out of loan by LoanArchiver; listings read it only when history is requested.
+create table loan_history (
+    id bigint primary key,
+    customer varchar(255),
+    customer_email varchar(255),
+    id_book bigint,
+    loan_date date,
+    due_date date,
+    returned boolean not null,
+    version bigint,
+    updated_at timestamp not null,
+    archived_at timestamp not null,
+    constraint fk_loan_history_book foreign key (id_book) references book (id)
+);
+
+-- loans of a book, keyset on id
+create index ix_loan_history_book on loan_history (id_book, id);
+
+-- loan search by customer
+create index ix_loan_history_customer on loan_history (customer);
@@ -0,0 +1,2 @@
+-- BookSearchIndex: books changed since its previous sync
+create index ix_book_updated_at on book (updated_at);
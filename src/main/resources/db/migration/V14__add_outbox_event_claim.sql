@@ -0,0 +1,3 @@
+-- OutboxDispatcher claims a batch before mailing it: claimed_by holds the claim token and next_attempt_at is
+-- pushed to the end of the lease, so other instances skip the batch until it is dispatched or the lease expires.
+alter table outbox_event add column claimed_by varchar(36);
@@ -0,0 +1,3 @@
+-- Late loan mails that MailEngine could not send are handed to the outbox with their rendered text, since the
+-- number of days overdue in the message is fixed on the day the job ran.
+alter table outbox_event add column message varchar(4000);
@@ -0,0 +1,23 @@
+create table book (
+    id bigint auto_increment primary key,
+    title varchar(255),
+    author varchar(255),
+    isbn varchar(255)
+);
+
+create table loan (
+    id bigint auto_increment primary key,
+    customer varchar(255),
+    customer_email varchar(255),
+    id_book bigint,
+    loan_date date,
+    returned boolean,
+    constraint fk_loan_book foreign key (id_book) references book (id)
+);
+
+create table job_checkpoint (
+    name varchar(255) primary key,
+    run_date date,
+    last_id bigint,
+    completed boolean
+);
@@ -0,0 +1,13 @@
+-- existsByIsbn / findByIsbn
+create unique index ux_book_isbn on book (isbn);
+
+-- "not returned" was stored as null or false, and that OR cannot be answered by an index
+update loan set returned = false where returned is null;
+alter table loan alter column returned set default false;
+alter table loan alter column returned set not null;
+
+-- existsByBookAndNotReturned
+create index ix_loan_book_returned on loan (id_book, returned);
+
+-- late loans scan: loan_date range over active loans, keyset on id
+create index ix_loan_late on loan (returned, loan_date, id);
@@ -0,0 +1,5 @@
+-- At most one active loan per book. active_book holds id_book while the loan is not returned
+-- and null afterwards; the unique index ignores nulls, so it only locks the book being lent.
+-- On databases with partial indexes this is: create unique index ... on loan (id_book) where not returned
+alter table loan add column active_book bigint as (case when returned = false then id_book end);
+create unique index ux_loan_active_book on loan (active_book);
@@ -0,0 +1,2 @@
+alter table book add column version bigint not null default 0;
+alter table loan add column version bigint not null default 0;
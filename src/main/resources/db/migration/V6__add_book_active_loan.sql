@@ -0,0 +1,5 @@
+-- Availability marker: id of the book's active loan, null while the book is available.
+-- Maintained on checkout and return; ScheduleService repairs it from the loan history.
+alter table book add column active_loan_id bigint;
+update book b set active_loan_id = (select l.id from loan l where l.active_book = b.id);
+create unique index ux_book_active_loan on book (active_loan_id);
@@ -0,0 +1,2 @@
+alter table book add column updated_at timestamp default current_timestamp not null;
+alter table loan add column updated_at timestamp default current_timestamp not null;
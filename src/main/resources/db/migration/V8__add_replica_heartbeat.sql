@@ -0,0 +1,6 @@
+-- Single-row heartbeat written to the primary; its replicated value tells how far behind each replica is.
+create table replica_heartbeat (
+    id int not null primary key,
+    beat_at timestamp not null
+);
+insert into replica_heartbeat (id, beat_at) values (1, current_timestamp);
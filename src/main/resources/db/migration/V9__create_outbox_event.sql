@@ -0,0 +1,16 @@
+-- Loan events written in the same transaction as the loan change and mailed later by OutboxDispatcher.
+create table outbox_event (
+    id bigint auto_increment primary key,
+    type varchar(32) not null,
+    dedup_key varchar(64) not null,
+    loan_id bigint not null,
+    recipient varchar(255) not null,
+    customer varchar(255),
+    book_title varchar(255),
+    created_at timestamp not null,
+    attempts int default 0 not null,
+    next_attempt_at timestamp not null,
+    dispatched_at timestamp
+);
+create unique index ux_outbox_event_dedup_key on outbox_event (dedup_key);
+create index ix_outbox_event_pending on outbox_event (dispatched_at, next_attempt_at);
@@ -0,0 +1,83 @@
+package com.example.library.api.limit;
+
+import com.example.library.service.LibraryMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveLimiterTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LibraryMetrics metrics = new LibraryMetrics(registry, true);
+    long now;
+
+    @Test
+    @DisplayName("Deve rejeitar quando as requisições em andamento atingirem o limite.")
+    public void rejectAtLimitTest() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test-reject", 2, 1, 10, metrics);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(registry.get("library.limiter.rejected").tag("limiter", "test-reject").counter().count()).isEqualTo(1);
+
+        limiter.release(System.nanoTime(), false);
+
+        assertThat(limiter.getInflight()).isEqualTo(1);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve aumentar o limite enquanto a latência se mantiver e a demanda o usar.")
+    public void increaseTest() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test-increase", 10, 2, 12, metrics);
+
+        window(limiter, 10 * MILLIS, 8, false);
+        window(limiter, 10 * MILLIS, 8, false);
+        assertThat(limiter.getLimit()).isEqualTo(12);
+
+        window(limiter, 10 * MILLIS, 8, false);
+        assertThat(limiter.getLimit()).isEqualTo(12);
+    }
+
+    @Test
+    @DisplayName("Não deve aumentar o limite quando a demanda estiver bem abaixo dele.")
+    public void idleTest() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test-idle", 10, 2, 100, metrics);
+
+        window(limiter, 10 * MILLIS, 1, false);
+        window(limiter, 10 * MILLIS, 1, false);
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Deve reduzir o limite quando a latência passar da tolerância ou houver erros, até o mínimo.")
+    public void decreaseTest() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test-decrease", 20, 15, 100, metrics);
+
+        window(limiter, 10 * MILLIS, 5, false);
+        window(limiter, 50 * MILLIS, 5, false);
+        assertThat(limiter.getLimit()).isEqualTo(18);
+
+        window(limiter, 10 * MILLIS, 5, true);
+        assertThat(limiter.getLimit()).isEqualTo(16);
+
+        window(limiter, 50 * MILLIS, 5, false);
+        window(limiter, 50 * MILLIS, 5, false);
+        assertThat(limiter.getLimit()).isEqualTo(15);
+    }
+
+    private void window(AdaptiveLimiter limiter, long latency, int concurrency, boolean dropped) {
+        for (int i = 0; i < AdaptiveLimiter.WINDOW_MIN_SAMPLES; i++) {
+            now += AdaptiveLimiter.WINDOW_NANOS / (AdaptiveLimiter.WINDOW_MIN_SAMPLES - 1) + 1;
+            limiter.sample(now, latency, dropped && i == 0, concurrency);
+        }
+        now += AdaptiveLimiter.WINDOW_NANOS;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.library.api.mapper;
+
+import com.example.library.api.dto.BookDTO;
+import com.example.library.api.dto.LoanDTO;
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoanMapperTest {
+    LoanMapper mapper = Mappers.getMapper(LoanMapper.class);
+
+    BookMapper bookMapper = Mappers.getMapper(BookMapper.class);
+
+    @Test
+    @DisplayName("Deve converter um empréstimo com o livro aninhado.")
+    public void loanToDtoTest() {
+        Book book = Book.builder().id(7L).title("Title").author("Author").isbn("123").build();
+        Loan loan = Loan.builder()
+                .id(1L)
+                .customer("fulano")
+                .customerEmail("fulano@email.com")
+                .book(book)
+                .loanDate(LocalDate.now())
+                .build();
+
+        LoanDTO dto = mapper.toDto(loan);
+
+        assertThat(dto.getId()).isEqualTo(1L);
+        assertThat(dto.getCustomer()).isEqualTo("fulano");
+        assertThat(dto.getEmail()).isEqualTo("fulano@email.com");
+        assertThat(dto.getIsbn()).isNull();
+        assertThat(dto.getBook()).isEqualTo(BookDTO.builder().id(7L).title("Title").author("Author").isbn("123").available(true).build());
+    }
+
+    @Test
+    @DisplayName("Deve converter um DTO de livro em entidade.")
+    public void bookToEntityTest() {
+        BookDTO dto = BookDTO.builder().id(3L).title("Title").build();
+
+        Book book = bookMapper.toEntity(dto);
+
+        assertThat(book.getId()).isEqualTo(3L);
+        assertThat(book.getTitle()).isEqualTo("Title");
+        assertThat(book.getAuthor()).isNull();
+        assertThat(book.getLoans()).isNull();
+    }
+}
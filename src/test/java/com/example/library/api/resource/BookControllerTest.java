@@ -1,11 +1,17 @@
 package com.example.library.api.resource;
 
 import com.example.library.api.dto.BookDTO;
+import com.example.library.api.dto.BookImportResultDTO;
+import com.example.library.api.dto.BookSuggestionDTO;
 import com.example.library.exception.BusinessException;
 import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookVersion;
 import com.example.library.service.BookService;
+import com.example.library.service.LibraryMetrics;
 import com.example.library.service.LoanService;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,18 +23,30 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -47,6 +65,9 @@ public class BookControllerTest {
     @MockBean
     LoanService loanService;
 
+    @MockBean
+    LibraryMetrics metrics;
+
     @Test
     @DisplayName("Deve criar um livro com sucesso.")
     public void createBookTest() throws Exception {
@@ -122,8 +143,10 @@ public class BookControllerTest {
                 .author(createNewBook().getAuthor())
                 .title(createNewBook().getTitle())
                 .isbn(createNewBook().getIsbn())
+                .activeLoanId(5L)
                 .build();
 
+        givenVersion(id, null, null);
         given(service.getById(id)).willReturn(Optional.of(book));
 
         // execução
@@ -133,16 +156,100 @@ public class BookControllerTest {
         mvc
                 .perform(request)
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0\""))
                 .andExpect(jsonPath("id").value(id))
                 .andExpect(jsonPath("author").value(createNewBook().getAuthor()))
                 .andExpect(jsonPath("title").value(createNewBook().getTitle()))
-                .andExpect(jsonPath("isbn").value(createNewBook().getIsbn()));
+                .andExpect(jsonPath("isbn").value(createNewBook().getIsbn()))
+                .andExpect(jsonPath("available").value(false));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 sem corpo quando a versão do livro não mudou.")
+    public void getBookNotModifiedTest() throws Exception {
+        Book book = Book.builder().id(1L).title("Duna").version(3L).build();
+        givenVersion(1L, 3L, null);
+        given(service.getById(1L)).willReturn(Optional.of(book));
+
+        mvc
+                .perform(get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+                .andExpect(content().string(""));
+
+        verify(service, never()).getById(1L);
+
+        mvc
+                .perform(get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("title").value("Duna"));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 quando o livro não mudou desde a data informada.")
+    public void getBookNotModifiedSinceTest() throws Exception {
+        Book book = Book.builder().id(1L).version(3L).updatedAt(Instant.parse("2021-06-01T10:15:30.500Z")).build();
+        givenVersion(1L, 3L, book.getUpdatedAt());
+        given(service.getById(1L)).willReturn(Optional.of(book));
+
+        mvc
+                .perform(get(BOOK_API.concat("/1")).header(HttpHeaders.IF_MODIFIED_SINCE, "Tue, 01 Jun 2021 10:15:30 GMT"))
+                .andExpect(status().isNotModified());
+
+        mvc
+                .perform(get(BOOK_API.concat("/1")).header(HttpHeaders.IF_MODIFIED_SINCE, "Tue, 01 Jun 2021 10:15:29 GMT"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.LAST_MODIFIED, "Tue, 01 Jun 2021 10:15:30 GMT"));
+    }
+
+    @Test
+    @DisplayName("Deve recarregar o livro quando a versão em cache estiver desatualizada.")
+    public void getBookStaleCacheTest() throws Exception {
+        givenVersion(1L, 4L, null);
+        given(service.getById(1L)).willReturn(Optional.of(Book.builder().id(1L).title("Duna").version(3L).build()));
+        given(service.refresh(1L)).willReturn(Optional.of(Book.builder().id(1L).title("Duna Messias").version(4L).build()));
+
+        mvc
+                .perform(get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+                .andExpect(jsonPath("title").value("Duna Messias"));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 para os empréstimos do livro sem consultá-los.")
+    public void loansByBookNotModifiedTest() throws Exception {
+        givenVersion(1L, 3L, null);
+
+        mvc
+                .perform(get(BOOK_API.concat("/1/loans")).header(HttpHeaders.IF_NONE_MATCH, "\"loans-3\""))
+                .andExpect(status().isNotModified());
+
+        verify(service, never()).getById(1L);
+        verify(loanService, never()).getLoansByBook(Mockito.any(Book.class), Mockito.anyBoolean(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve incluir os empréstimos do histórico quando solicitado.")
+    public void loansByBookWithHistoryTest() throws Exception {
+        Book book = Book.builder().id(1L).version(3L).build();
+        givenVersion(1L, 3L, null);
+        given(service.getById(1L)).willReturn(Optional.of(book));
+        given(loanService.getLoansByBook(Mockito.eq(book), Mockito.eq(true), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<>(Collections.emptyList(), PageRequest.of(0, 20), 0));
+
+        mvc
+                .perform(get(BOOK_API.concat("/1/loans?history=true")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("totalElements").value(0));
+
+        verify(loanService, never()).getLoansByBook(Mockito.any(Book.class), Mockito.eq(false), Mockito.any(Pageable.class));
     }
 
     @Test
     @DisplayName("Deve retornar resource not found quando o livro procurado não existir.")
     public void bookNotFoundTest() throws Exception {
-        given(service.getById(Mockito.anyLong())).willReturn(Optional.empty());
+        given(service.getVersion(Mockito.anyLong())).willReturn(Optional.empty());
 
         // execução
         MockHttpServletRequestBuilder request = get(BOOK_API.concat("/" + 1))
@@ -187,32 +294,72 @@ public class BookControllerTest {
         Long id = 1L;
         String json = new ObjectMapper().writeValueAsString(createNewBook());
 
-        Book updatingBook = Book.builder().id(1L).author("some author").title("some title").isbn("321").build();
-        given(service.getById(id)).willReturn(Optional.of(updatingBook));
-
-        Book updatedBook = Book.builder().id(1L).author("Arthur").title("As Aventuras").isbn("321").build();
-        given(service.update(updatingBook)).willReturn(updatedBook);
+        Book updatingBook = Book.builder().id(1L).author("some author").title("some title").isbn("321").version(0L).build();
+        givenUpdate(updatingBook);
 
         MockHttpServletRequestBuilder request = put(BOOK_API.concat("/" + 1))
                 .accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
                 .content(json);
 
         mvc
                 .perform(request)
                 .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
                 .andExpect(jsonPath("id").value(id))
                 .andExpect(jsonPath("author").value(createNewBook().getAuthor()))
                 .andExpect(jsonPath("title").value(createNewBook().getTitle()))
                 .andExpect(jsonPath("isbn").value("321"));
     }
 
+    @Test
+    @DisplayName("Deve retornar precondition failed quando a versão informada estiver desatualizada.")
+    public void updateStaleBookTest() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(createNewBook());
+
+        Book book = Book.builder().id(1L).author("some author").title("some title").isbn("321").version(2L).build();
+        givenUpdate(book);
+
+        MockHttpServletRequestBuilder request = put(BOOK_API.concat("/" + 1))
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"1\"")
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("errors[0]").value("Recurso alterado por outra requisição."));
+
+        assertThat(book.getTitle()).isEqualTo("some title");
+    }
+
+    @Test
+    @DisplayName("Deve retornar precondition failed quando o livro for alterado durante a atualização.")
+    public void updateConcurrentlyModifiedBookTest() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(createNewBook());
+
+        given(service.update(Mockito.eq(1L), Mockito.any()))
+                .willThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        MockHttpServletRequestBuilder request = put(BOOK_API.concat("/" + 1))
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("errors[0]").value("Recurso alterado por outra requisição."));
+    }
+
     @Test
     @DisplayName("Deve retornar resource not found quando não encontrar o livro para atualizar")
     public void updateInexistentBookTest() throws Exception {
         String json = new ObjectMapper().writeValueAsString(createNewBook());
 
-        given(service.getById(Mockito.anyLong())).willReturn(Optional.empty());
+        given(service.update(Mockito.eq(1L), Mockito.any())).willReturn(Optional.empty());
 
         MockHttpServletRequestBuilder request = put(BOOK_API.concat("/" + 1))
                 .accept(MediaType.APPLICATION_JSON)
@@ -254,6 +401,186 @@ public class BookControllerTest {
                 .andExpect(jsonPath("pageable.pageNumber").value(0));
     }
 
+    @Test
+    @DisplayName("Deve buscar livros por texto livre, ordenados por relevância.")
+    public void searchBooksTest() throws Exception {
+        Book book = Book.builder().id(1L).author("Author").title("Title").isbn("123").build();
+
+        given(service.search(Mockito.eq("tit"), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Book>(Arrays.asList(book), PageRequest.of(0, 10), 1));
+
+        MockHttpServletRequestBuilder request = get(BOOK_API.concat("?q=tit&page=0&size=10"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(1L))
+                .andExpect(jsonPath("totalElements").value(1));
+
+        verify(service, never()).find(Mockito.any(Book.class), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve sugerir complementos de título e autor, limitando a quantidade.")
+    public void suggestBooksTest() throws Exception {
+        BookSuggestionDTO suggestion = BookSuggestionDTO.builder().text("As Aventuras").field("title").books(2).build();
+        given(service.suggest("aven", 10)).willReturn(Arrays.asList(suggestion));
+
+        MockHttpServletRequestBuilder request = get(BOOK_API.concat("/suggest?prefix=aven&size=50"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("[0].text").value("As Aventuras"))
+                .andExpect(jsonPath("[0].field").value("title"))
+                .andExpect(jsonPath("[0].books").value(2));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros a partir de um cursor, sem contar o total.")
+    public void findBooksByCursorTest() throws Exception {
+        Book book = Book.builder().id(1L).author("Arthur").title("As Aventuras").isbn("001").build();
+
+        given(service.findAfter(Mockito.any(Book.class), Mockito.eq(""), Mockito.eq(0L), Mockito.eq(1)))
+                .willReturn(new SliceImpl<Book>(Arrays.asList(book), PageRequest.of(0, 1), true));
+
+        MockHttpServletRequestBuilder request = get(BOOK_API.concat("?title=As&cursor=&size=1"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("cursor").value(CursorToken.encode(1L, "001")))
+                .andExpect(jsonPath("totalElements").doesNotExist())
+                .andExpect(jsonPath("total").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros a partir de um cursor em CBOR.")
+    public void findBooksByCursorCborTest() throws Exception {
+        Book book = Book.builder().id(1L).author("Arthur").title("As Aventuras").isbn("001").build();
+
+        given(service.findAfter(Mockito.any(Book.class), Mockito.eq(""), Mockito.eq(0L), Mockito.eq(1)))
+                .willReturn(new SliceImpl<Book>(Arrays.asList(book), PageRequest.of(0, 1), true));
+
+        byte[] body = mvc
+                .perform(get(BOOK_API.concat("?title=As&cursor=&size=1")).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode page = new ObjectMapper(new CBORFactory()).readTree(body);
+        assertThat(page.get("cursor").asText()).isEqualTo(CursorToken.encode(1L, "001"));
+        assertThat(page.get("content").get(0).get("title").asText()).isEqualTo("As Aventuras");
+        assertThat(page.has("total")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request quando o cursor for inválido.")
+    public void findBooksByInvalidCursorTest() throws Exception {
+        MockHttpServletRequestBuilder request = get(BOOK_API.concat("?cursor=invalido"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("errors[0]").value("Cursor inválido."));
+    }
+
+    @Test
+    @DisplayName("Deve importar livros de um array JSON, reportando o resultado de cada linha.")
+    public void importBooksFromJsonArrayTest() throws Exception {
+        BookDTO valid = createNewBook();
+        BookDTO invalid = BookDTO.builder().isbn("002").build();
+        String json = new ObjectMapper().writeValueAsString(Arrays.asList(valid, invalid));
+
+        given(service.importBooks(Mockito.anyList())).willReturn(Arrays.asList(
+                BookImportResultDTO.builder().isbn("001").status(BookImportResultDTO.Status.CREATED).id(1L).build()));
+
+        MockHttpServletRequestBuilder request = post(BOOK_API.concat("/import"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("[0].line").value(1))
+                .andExpect(jsonPath("[0].status").value("CREATED"))
+                .andExpect(jsonPath("[0].id").value(1))
+                .andExpect(jsonPath("[1].line").value(2))
+                .andExpect(jsonPath("[1].status").value("INVALID"));
+    }
+
+    @Test
+    @DisplayName("Deve importar livros de um stream NDJSON.")
+    public void importBooksFromNdjsonTest() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String ndjson = objectMapper.writeValueAsString(createNewBook()) + "\n"
+                + objectMapper.writeValueAsString(createNewBook()) + "\n";
+
+        given(service.importBooks(Mockito.anyList())).willReturn(Arrays.asList(
+                BookImportResultDTO.builder().isbn("001").status(BookImportResultDTO.Status.CREATED).id(1L).build(),
+                BookImportResultDTO.builder().isbn("001").status(BookImportResultDTO.Status.DUPLICATED).build()));
+
+        MockHttpServletRequestBuilder request = post(BOOK_API.concat("/import"))
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(ndjson);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("[1].line").value(2))
+                .andExpect(jsonPath("[1].status").value("DUPLICATED"));
+    }
+
+    @Test
+    @DisplayName("Deve exportar os livros filtrados em CSV.")
+    public void exportBooksCsvTest() throws Exception {
+        Book book = Book.builder().id(1L).title("Duna").author("Frank Herbert").isbn("123").build();
+        doAnswer(invocation -> {
+            invocation.<Consumer<Book>>getArgument(1).accept(book);
+            return null;
+        }).when(service).export(Mockito.any(Book.class), Mockito.any());
+
+        mvc
+                .perform(get(BOOK_API.concat("/export?format=csv&author=Frank")))
+                .andExpect(status().isOk())
+                .andExpect(content().string("id,title,author,isbn,available\r\n1,Duna,Frank Herbert,123,true\r\n"));
+
+        verify(service).export(Mockito.argThat(filter -> "Frank".equals(filter.getAuthor())), Mockito.any());
+    }
+
+    private void givenVersion(Long id, Long version, Instant updatedAt) {
+        given(service.getVersion(id)).willReturn(Optional.of(new BookVersion() {
+            @Override
+            public Long getVersion() {
+                return version;
+            }
+
+            @Override
+            public Instant getUpdatedAt() {
+                return updatedAt;
+            }
+        }));
+    }
+
+    private void givenUpdate(Book current) {
+        given(service.update(Mockito.eq(current.getId()), Mockito.any())).willAnswer(invocation -> {
+            invocation.<Consumer<Book>>getArgument(1).accept(current);
+            current.setVersion(current.getVersion() + 1);
+            return Optional.of(current);
+        });
+    }
+
     public static BookDTO createNewBook() {
         return BookDTO.builder().author("Arthur").title("As Aventuras").isbn("001").build();
     }
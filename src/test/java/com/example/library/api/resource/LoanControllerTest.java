@@ -2,14 +2,18 @@ package com.example.library.api.resource;
 
 import com.example.library.api.dto.LoanDTO;
 import com.example.library.api.dto.LoanFilterDTO;
+import com.example.library.api.dto.ReturnLoansDTO;
+import com.example.library.api.dto.ReturnLoansResultDTO;
 import com.example.library.api.dto.ReturnedLoanDTO;
+import com.example.library.api.limit.AdaptiveLimiter;
 import com.example.library.exception.BusinessException;
-import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
-import com.example.library.service.BookService;
+import com.example.library.service.LibraryMetrics;
 import com.example.library.service.LoanService;
 import com.example.library.service.LoanServiceTest;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -21,18 +25,26 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
-import java.time.LocalDate;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -48,11 +60,14 @@ public class LoanControllerTest {
     @Autowired
     MockMvc mvc;
 
+    @Autowired
+    AdaptiveLimiter checkoutLimiter;
+
     @MockBean
     LoanService service;
 
     @MockBean
-    BookService bookService;
+    LibraryMetrics metrics;
 
     @Test
     @DisplayName("Deve realizar um empréstimo.")
@@ -60,12 +75,7 @@ public class LoanControllerTest {
         LoanDTO dto = LoanDTO.builder().isbn("123").customer("fulano").email("fulano@email.com").build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        Book book = Book.builder().id(1L).isbn(dto.getIsbn()).build();
-        given(bookService.getBookByIsbn(dto.getIsbn()))
-                .willReturn(Optional.of(book));
-
-        Loan loan = Loan.builder().id(1L).customer("fulano").book(book).loanDate(LocalDate.now()).build();
-        given(service.save(Mockito.any(Loan.class))).willReturn(loan);
+        given(service.checkout(dto.getIsbn(), dto.getCustomer(), dto.getEmail())).willReturn(1L);
 
         MockHttpServletRequestBuilder request = post(LOAN_API)
                 .accept(MediaType.APPLICATION_JSON)
@@ -78,13 +88,45 @@ public class LoanControllerTest {
                 .andExpect(content().string("1"));
     }
 
+    @Test
+    @DisplayName("Deve rejeitar empréstimos com 503 e Retry-After quando o limite de concorrência for atingido.")
+    public void createLoanSheddingTest() throws Exception {
+        int acquired = 0;
+        while (checkoutLimiter.tryAcquire()) {
+            acquired++;
+        }
+        try {
+            LoanDTO dto = LoanDTO.builder().isbn("123").customer("fulano").email("fulano@email.com").build();
+
+            mvc
+                    .perform(post(LOAN_API)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(new ObjectMapper().writeValueAsString(dto)))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                    .andExpect(jsonPath("errors[0]").value("Servidor sobrecarregado, tente novamente em instantes."));
+
+            given(service.find(Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)))
+                    .willReturn(new PageImpl<Loan>(Collections.emptyList(), PageRequest.of(0, 10), 0));
+            mvc
+                    .perform(get(LOAN_API.concat("?isbn=123")).accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk());
+        } finally {
+            for (int i = 0; i < acquired; i++) {
+                checkoutLimiter.release(System.nanoTime(), false);
+            }
+        }
+        verify(service, never()).checkout(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+    }
+
     @Test
     @DisplayName("Deve retornar erro ao tentar fazer empréstimo com Isbn inexistente.")
     public void invalidIsbnCreateLoanTest() throws Exception {
         LoanDTO dto = LoanDTO.builder().isbn("123").customer("fulano").build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        given(bookService.getBookByIsbn(dto.getIsbn())).willReturn(Optional.empty());
+        given(service.checkout(dto.getIsbn(), dto.getCustomer(), dto.getEmail()))
+                .willThrow(new BusinessException("Livro não encontrado para o Isbn informado."));
 
         MockHttpServletRequestBuilder request = post(LOAN_API)
                 .accept(MediaType.APPLICATION_JSON)
@@ -104,11 +146,8 @@ public class LoanControllerTest {
         LoanDTO dto = LoanDTO.builder().isbn("123").customer("fulano").build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        Book book = Book.builder().id(1L).isbn(dto.getIsbn()).build();
-        given(bookService.getBookByIsbn(dto.getIsbn()))
-                .willReturn(Optional.of(book));
-
-        given(service.save(Mockito.any(Loan.class))).willThrow(new BusinessException("Livro já emprestado."));
+        given(service.checkout(dto.getIsbn(), dto.getCustomer(), dto.getEmail()))
+                .willThrow(new BusinessException("Livro já emprestado."));
 
         MockHttpServletRequestBuilder request = post(LOAN_API)
                 .accept(MediaType.APPLICATION_JSON)
@@ -122,27 +161,84 @@ public class LoanControllerTest {
                 .andExpect(jsonPath("errors[0]").value("Livro já emprestado."));
     }
 
+    @Test
+    @DisplayName("Deve obter um empréstimo com ETag e Last-Modified.")
+    public void getLoanTest() throws Exception {
+        Loan loan = LoanServiceTest.createNewLoan();
+        loan.setId(1L);
+        loan.setVersion(2L);
+        loan.setUpdatedAt(Instant.parse("2021-06-01T10:15:30Z"));
+        given(service.getById(1L)).willReturn(Optional.of(loan));
+
+        mvc
+                .perform(get(LOAN_API.concat("/1")).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2\""))
+                .andExpect(header().string(HttpHeaders.LAST_MODIFIED, "Tue, 01 Jun 2021 10:15:30 GMT"))
+                .andExpect(jsonPath("id").value(1));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 sem corpo quando o empréstimo não mudou.")
+    public void getLoanNotModifiedTest() throws Exception {
+        Loan loan = LoanServiceTest.createNewLoan();
+        loan.setId(1L);
+        loan.setVersion(2L);
+        given(service.getById(1L)).willReturn(Optional.of(loan));
+
+        mvc
+                .perform(get(LOAN_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
     @Test
     @DisplayName("Deve retornar um livro.")
     public void returnBookTest() throws Exception {
         ReturnedLoanDTO dto = ReturnedLoanDTO.builder().returned(true).build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        Loan loan = Loan.builder().id(1L).build();
+        Loan loan = Loan.builder().id(1L).version(0L).build();
         given(service.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+        given(service.update(loan)).willReturn(Loan.builder().id(1L).returned(true).version(1L).build());
 
         MockHttpServletRequestBuilder request = patch(LOAN_API.concat("/1"))
                 .accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
                 .content(json);
 
         mvc
                 .perform(request)
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
 
         verify(service, times(1)).update(loan);
     }
 
+    @Test
+    @DisplayName("Deve retornar precondition failed ao devolver um empréstimo com versão desatualizada.")
+    public void returnStaleLoanTest() throws Exception {
+        ReturnedLoanDTO dto = ReturnedLoanDTO.builder().returned(true).build();
+        String json = new ObjectMapper().writeValueAsString(dto);
+
+        Loan loan = Loan.builder().id(1L).version(3L).build();
+        given(service.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+
+        MockHttpServletRequestBuilder request = patch(LOAN_API.concat("/1"))
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"2\"")
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("errors[0]").value("Recurso alterado por outra requisição."));
+
+        verify(service, never()).update(Mockito.any(Loan.class));
+    }
+
     @Test
     @DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente.")
     public void returnInexistentBookTest() throws Exception {
@@ -161,6 +257,34 @@ public class LoanControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote.")
+    public void returnLoansTest() throws Exception {
+        ReturnLoansDTO dto = ReturnLoansDTO.builder()
+                .ids(Arrays.asList(1L, 2L))
+                .isbns(Arrays.asList("123"))
+                .build();
+        String json = new ObjectMapper().writeValueAsString(dto);
+
+        ReturnLoansResultDTO result = ReturnLoansResultDTO.builder()
+                .returned(Arrays.asList(1L, 3L))
+                .alreadyReturnedIds(Arrays.asList(2L))
+                .build();
+        given(service.returnLoans(Arrays.asList(1L, 2L), Arrays.asList("123"))).willReturn(result);
+
+        MockHttpServletRequestBuilder request = patch(LOAN_API)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("returned", hasSize(2)))
+                .andExpect(jsonPath("alreadyReturnedIds[0]").value(2))
+                .andExpect(jsonPath("unknownIds", hasSize(0)));
+    }
+
     @Test
     @DisplayName("Deve filtrar empréstimos.")
     public void findLoansTest() throws Exception {
@@ -186,4 +310,109 @@ public class LoanControllerTest {
                 .andExpect(jsonPath("pageable.pageSize").value(10))
                 .andExpect(jsonPath("pageable.pageNumber").value(0));
     }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos em CBOR, somente com conteúdo e total.")
+    public void findLoansCborTest() throws Exception {
+        Loan loan = LoanServiceTest.createNewLoan();
+        loan.setId(1L);
+        loan.getBook().setIsbn("123");
+
+        given(service.find(Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Loan>(Arrays.asList(loan), PageRequest.of(0, 10), 11));
+
+        byte[] body = mvc
+                .perform(get(LOAN_API.concat("?isbn=123&page=0&size=10")).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode page = new ObjectMapper(new CBORFactory()).readTree(body);
+        assertThat(page.get("total").asLong()).isEqualTo(11);
+        assertThat(page.get("content").get(0).get("book").get("isbn").asText()).isEqualTo("123");
+        assertThat(page.has("pageable")).isFalse();
+        assertThat(page.has("cursor")).isFalse();
+
+        mvc
+                .perform(get(LOAN_API.concat("?isbn=123&page=0&size=10")))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("pageable.pageSize").value(10));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos a partir de um cursor.")
+    public void findLoansByCursorTest() throws Exception {
+        Loan loan = LoanServiceTest.createNewLoan();
+        loan.setId(5L);
+        loan.getBook().setIsbn("123");
+
+        given(service.findAfter(Mockito.any(LoanFilterDTO.class), Mockito.eq(4L), Mockito.eq(10)))
+                .willReturn(new SliceImpl<Loan>(Arrays.asList(loan), PageRequest.of(0, 10), false));
+
+        String queryString = String.format("?isbn=123&customer=fulano&cursor=%s&size=10", CursorToken.encode(4L, null));
+
+        MockHttpServletRequestBuilder request = get(LOAN_API.concat(queryString))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(5))
+                .andExpect(jsonPath("content[0].book.isbn").value("123"))
+                .andExpect(jsonPath("cursor").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Deve exportar os empréstimos filtrados em NDJSON, um por linha.")
+    public void exportLoansNdjsonTest() throws Exception {
+        Loan first = LoanServiceTest.createNewLoan();
+        first.setId(1L);
+        Loan second = LoanServiceTest.createNewLoan();
+        second.setId(2L);
+        doAnswer(invocation -> {
+            Consumer<Loan> consumer = invocation.getArgument(1);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(service).export(Mockito.any(LoanFilterDTO.class), Mockito.any());
+
+        mvc
+                .perform(get(LOAN_API.concat("/export?customer=fulano")))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_NDJSON_VALUE))
+                .andExpect(content().string(containsString("\"id\":1,")))
+                .andExpect(result -> assertThat(result.getResponse().getContentAsString().split("\n")).hasSize(2));
+    }
+
+    @Test
+    @DisplayName("Deve exportar os empréstimos filtrados em CSV, com cabeçalho.")
+    public void exportLoansCsvTest() throws Exception {
+        Loan loan = LoanServiceTest.createNewLoan();
+        loan.setId(1L);
+        loan.getBook().setIsbn("123");
+        loan.getBook().setTitle("Título, volume 1");
+        doAnswer(invocation -> {
+            invocation.<Consumer<Loan>>getArgument(1).accept(loan);
+            return null;
+        }).when(service).export(Mockito.any(LoanFilterDTO.class), Mockito.any());
+
+        mvc
+                .perform(get(LOAN_API.concat("/export?format=csv")))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"loans.csv\""))
+                .andExpect(content().string("id,customer,email,book_id,isbn,title,author\r\n"
+                        + "1,fulano,,1,123,\"Título, volume 1\",\r\n"));
+    }
+
+    @Test
+    @DisplayName("Deve rejeitar exportação em formato desconhecido.")
+    public void exportInvalidFormatTest() throws Exception {
+        mvc
+                .perform(get(LOAN_API.concat("/export?format=xml")))
+                .andExpect(status().isBadRequest());
+
+        verify(service, never()).export(Mockito.any(LoanFilterDTO.class), Mockito.any());
+    }
 }
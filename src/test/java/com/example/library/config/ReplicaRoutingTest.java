@@ -0,0 +1,143 @@
+package com.example.library.config;
+
+import com.example.library.model.entity.Book;
+import com.example.library.service.BookService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.servlet.http.Cookie;
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+        DataSourceConfig.REPLICA_URLS + "=" + ReplicaRoutingTest.REPLICA_URL,
+        "application.datasource.replica.max-lag-ms=1000",
+        "application.datasource.replica.heartbeat-ms=3600000"
+})
+@AutoConfigureMockMvc
+public class ReplicaRoutingTest {
+    static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    static JdbcTemplate replica;
+
+    @Autowired
+    DataSource primaryDataSource;
+
+    @Autowired
+    ReplicaRoutingDataSource routing;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    MeterRegistry registry;
+
+    @BeforeAll
+    public static void migrateReplica() {
+        DataSource dataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+        Flyway.configure().dataSource(dataSource).load().migrate();
+        replica = new JdbcTemplate(dataSource);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+        for (JdbcTemplate db : new JdbcTemplate[]{primary, replica}) {
+            db.update("delete from loan");
+            db.update("delete from book");
+        }
+        primary.update("insert into book (id, title, author, isbn) values (100, 'No primário', 'Fulano', '001')");
+        replica.update("insert into book (id, title, author, isbn) values (100, 'Na réplica', 'Fulano', '001')");
+    }
+
+    @Test
+    @DisplayName("Deve ler da réplica somente enquanto o atraso estiver dentro da tolerância.")
+    public void routeByLagTest() {
+        replicaBeat(Instant.now());
+        routing.heartbeat();
+
+        assertThat(findTitle()).isEqualTo("Na réplica");
+
+        replicaBeat(Instant.now().minusSeconds(60));
+        routing.heartbeat();
+
+        assertThat(findTitle()).isEqualTo("No primário");
+    }
+
+    @Test
+    @DisplayName("Deve manter o cliente no primário após uma escrita.")
+    public void readYourWritesTest() throws Exception {
+        replicaBeat(Instant.now());
+        routing.heartbeat();
+
+        mvc.perform(get("/api/books?sort=isbn").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("content[0].title").value("Na réplica"))
+                .andExpect(cookie().doesNotExist(ReadYourWritesFilter.COOKIE));
+
+        Cookie sticky = mvc
+                .perform(post("/api/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Novo\",\"author\":\"Beltrano\",\"isbn\":\"002\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(cookie().exists(ReadYourWritesFilter.COOKIE))
+                .andReturn().getResponse().getCookie(ReadYourWritesFilter.COOKIE);
+
+        mvc.perform(get("/api/books?sort=isbn").accept(MediaType.APPLICATION_JSON).cookie(sticky))
+                .andExpect(jsonPath("totalElements").value(2))
+                .andExpect(jsonPath("content[0].title").value("No primário"));
+
+        mvc.perform(get("/api/books?sort=isbn").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("totalElements").value(1));
+    }
+
+    @Test
+    @DisplayName("Deve expor métricas por rota e por pool.")
+    public void metricsTest() {
+        replicaBeat(Instant.now());
+        routing.heartbeat();
+        findTitle();
+
+        assertThat(registry.get("library.datasource.route").tag("route", "replica-1").counter().count()).isPositive();
+        assertThat(registry.get("library.datasource.replica.lag").tag("replica", "replica-1").gauge().value()).isLessThan(1000);
+        assertThat(registry.get("hikaricp.connections").tag("pool", "replica-1").gauge()).isNotNull();
+        assertThat(registry.get("hikaricp.connections").tag("pool", "primary").gauge()).isNotNull();
+    }
+
+    private String findTitle() {
+        return bookService.find(new Book(), PageRequest.of(0, 10)).getContent().get(0).getTitle();
+    }
+
+    private static void replicaBeat(Instant at) {
+        replica.update("update replica_heartbeat set beat_at = ? where id = 1", Timestamp.from(at));
+    }
+}
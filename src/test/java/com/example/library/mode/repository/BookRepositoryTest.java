@@ -1,23 +1,41 @@
 package com.example.library.mode.repository;
 
 import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
 import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.BookVersion;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 public class BookRepositoryTest {
     @Autowired
     TestEntityManager entityManager;
@@ -92,6 +110,150 @@ public class BookRepositoryTest {
         assertThat(deletedBook).isNull();
     }
 
+    @Test
+    @DisplayName("Deve buscar livros a partir do último isbn e id retornados.")
+    public void findAfterTest() {
+        Book first = entityManager.persist(createNewBook("001"));
+        Book second = entityManager.persist(createNewBook("002"));
+        entityManager.persist(Book.builder().author("Other").title("Other").isbn("003").build());
+
+        Slice<Book> firstSlice = repository.findAfter("title%", null, null, "", 0L, PageRequest.of(0, 1));
+        Slice<Book> secondSlice = repository.findAfter(
+                "title%", null, null, first.getIsbn(), first.getId(), PageRequest.of(0, 1));
+
+        assertThat(firstSlice.getContent()).containsExactly(first);
+        assertThat(firstSlice.hasNext()).isTrue();
+        assertThat(secondSlice.getContent()).containsExactly(second);
+        assertThat(secondSlice.hasNext()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve retornar os isbns já cadastrados dentre os informados.")
+    public void findExistingIsbnsTest() {
+        entityManager.persist(createNewBook("123"));
+        entityManager.persist(createNewBook("456"));
+
+        Set<String> existing = repository.findExistingIsbns(Arrays.asList("123", "456", "789"));
+
+        assertThat(existing).containsExactlyInAnyOrder("123", "456");
+    }
+
+    @Test
+    @DisplayName("Deve inserir livros em lote, sem uma ida ao banco por livro.")
+    public void saveAllInBatchesTest() {
+        Statistics statistics = entityManager.getEntityManager()
+                .getEntityManagerFactory()
+                .unwrap(SessionFactory.class)
+                .getStatistics();
+        List<Book> books = IntStream.range(0, 100)
+                .mapToObj(i -> createNewBook("isbn-" + i))
+                .collect(Collectors.toList());
+        statistics.clear();
+
+        repository.saveAll(books);
+        repository.flush();
+
+        assertThat(books).allMatch(book -> book.getId() != null);
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(100);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Deve rejeitar a atualização de um livro com versão desatualizada.")
+    public void staleBookUpdateTest() {
+        Book book = entityManager.persistAndFlush(createNewBook("123"));
+        Book stale = Book.builder().id(book.getId()).author(book.getAuthor()).title("Outro título")
+                .isbn(book.getIsbn()).version(book.getVersion()).build();
+
+        book.setTitle("Novo título");
+        entityManager.flush();
+
+        Throwable exception = catchThrowable(() -> repository.save(stale));
+
+        assertThat(book.getVersion()).isEqualTo(1L);
+        assertThat(exception).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+
+    @Test
+    @DisplayName("Deve reconstruir a marcação de disponibilidade a partir dos empréstimos.")
+    public void repairActiveLoansTest() {
+        Book lent = entityManager.persist(createNewBook("123"));
+        Book available = entityManager.persist(createNewBook("456"));
+        Loan loan = entityManager.persist(Loan.builder().book(lent).customer("fulano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        repository.markLent(available.getId(), 999L);
+
+        int repaired = repository.clearStaleActiveLoans() + repository.fillMissingActiveLoans();
+
+        assertThat(repaired).isEqualTo(2);
+        assertThat(entityManager.find(Book.class, lent.getId()).getActiveLoanId()).isEqualTo(loan.getId());
+        assertThat(entityManager.find(Book.class, available.getId()).getActiveLoanId()).isNull();
+        assertThat(repository.clearStaleActiveLoans() + repository.fillMissingActiveLoans()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve incrementar a versão somente dos livros dos empréstimos informados.")
+    public void touchByLoanIdsTest() {
+        Book touched = entityManager.persist(createNewBook("123"));
+        Book other = entityManager.persist(createNewBook("456"));
+        Loan loan = entityManager.persist(Loan.builder().book(touched).customer("fulano").loanDate(LocalDate.now()).build());
+        entityManager.persist(Loan.builder().book(other).customer("ciclano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+
+        List<Book> books = repository.findByLoanIdIn(Arrays.asList(loan.getId(), 999L));
+        assertThat(books).extracting(Book::getId).containsExactly(touched.getId());
+        assertThat(repository.touch(Collections.singleton(touched.getId()))).isEqualTo(1);
+
+        assertThat(entityManager.find(Book.class, touched.getId()).getVersion()).isEqualTo(touched.getVersion() + 1);
+        assertThat(entityManager.find(Book.class, other.getId()).getVersion()).isEqualTo(other.getVersion());
+    }
+
+    @Test
+    @DisplayName("Deve percorrer em stream os livros filtrados, em ordem de id.")
+    public void streamAllTest() {
+        Book first = entityManager.persist(createNewBook("123"));
+        entityManager.persist(Book.builder().author("Outro").title("Title").isbn("456").build());
+        Book third = entityManager.persist(createNewBook("789"));
+        entityManager.flush();
+
+        try (Stream<Book> books = repository.streamAll(null, "auth%", null)) {
+            assertThat(books.map(Book::getId).collect(Collectors.toList())).containsExactly(first.getId(), third.getId());
+        }
+    }
+
+    @Test
+    @DisplayName("Deve obter somente a versão e a data de alteração de um livro.")
+    public void findVersionByIdTest() {
+        Book book = entityManager.persistFlushFind(createNewBook("123"));
+
+        Optional<BookVersion> version = repository.findVersionById(book.getId());
+
+        assertThat(version).isPresent();
+        assertThat(version.get().getVersion()).isEqualTo(book.getVersion());
+        assertThat(version.get().getUpdatedAt()).isEqualTo(book.getUpdatedAt());
+        assertThat(repository.findVersionById(book.getId() + 1)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve listar os livros alterados desde um instante, em ordem de id.")
+    public void findChangedAfterTest() {
+        Book first = entityManager.persist(createNewBook("123"));
+        Book old = entityManager.persist(createNewBook("456"));
+        Book third = entityManager.persist(createNewBook("789"));
+        entityManager.flush();
+        entityManager.getEntityManager()
+                .createNativeQuery("update book set updated_at = dateadd('DAY', -1, current_timestamp) where id = ?")
+                .setParameter(1, old.getId())
+                .executeUpdate();
+        Instant since = Instant.now().minus(1, ChronoUnit.HOURS);
+
+        List<Book> changed = repository.findChangedAfter(since, 0L, PageRequest.of(0, 1));
+        List<Book> next = repository.findChangedAfter(since, first.getId(), PageRequest.of(0, 10));
+
+        assertThat(changed).extracting(Book::getId).containsExactly(first.getId());
+        assertThat(next).extracting(Book::getId).containsExactly(third.getId());
+    }
+
     public static Book createNewBook(String isbn) {
         return Book.builder().author("Author").title("Title").isbn(isbn).build();
     }
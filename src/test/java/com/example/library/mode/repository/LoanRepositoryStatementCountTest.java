@@ -0,0 +1,105 @@
+package com.example.library.mode.repository;
+
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import com.example.library.model.repository.LoanHistoryRow;
+import com.example.library.model.repository.LoanRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static com.example.library.mode.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class LoanRepositoryStatementCountTest {
+    static final int PAGE_SIZE = 100;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    @Autowired
+    LoanRepository repository;
+
+    Statistics statistics;
+
+    @BeforeEach
+    public void setup() {
+        statistics = entityManager.getEntityManager()
+                .getEntityManagerFactory()
+                .unwrap(SessionFactory.class)
+                .getStatistics();
+    }
+
+    @Test
+    @DisplayName("Deve buscar uma página de 100 empréstimos pelo customer com no máximo duas instruções SQL.")
+    public void findByBookIsbnOrCustomerStatementCount() {
+        for (int i = 0; i < PAGE_SIZE + 1; i++) {
+            Book book = entityManager.persist(createNewBook("isbn-" + i));
+            entityManager.persist(Loan.builder().book(book).customer("fulano").loanDate(LocalDate.now()).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+
+        Page<Loan> result = repository.findByBookIsbnOrCustomer("none", "fulano", PageRequest.of(0, PAGE_SIZE));
+        result.getContent().forEach(loan -> loan.getBook().getTitle());
+
+        assertThat(result.getContent()).hasSize(PAGE_SIZE);
+        assertThat(result.getTotalElements()).isEqualTo(PAGE_SIZE + 1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve buscar uma página de 100 empréstimos do livro com no máximo duas instruções SQL.")
+    public void findByBookStatementCount() {
+        Book book = entityManager.persist(createNewBook("123"));
+        for (int i = 0; i < PAGE_SIZE + 1; i++) {
+            entityManager.persist(Loan.builder().book(book).customer("fulano").loanDate(LocalDate.now()).returned(true).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+
+        Page<Loan> result = repository.findByBook(Book.builder().id(book.getId()).version(book.getVersion()).build(), PageRequest.of(0, PAGE_SIZE));
+        result.getContent().forEach(loan -> loan.getBook().getTitle());
+
+        assertThat(result.getContent()).hasSize(PAGE_SIZE);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve buscar uma página de 100 empréstimos ativos e do histórico com no máximo duas instruções SQL.")
+    public void findWithHistoryStatementCount() {
+        for (int i = 0; i < PAGE_SIZE + 1; i++) {
+            Book book = entityManager.persist(createNewBook("isbn-" + i));
+            entityManager.persist(Loan.builder().book(book).customer("fulano").loanDate(LocalDate.now()).returned(i % 2 == 0).build());
+        }
+        entityManager.flush();
+        repository.copyToHistory(repository.findArchivableIds(Instant.now().plusSeconds(60), PageRequest.of(0, PAGE_SIZE)));
+        entityManager.getEntityManager().createQuery("delete from Loan as l where l.returned = true").executeUpdate();
+        entityManager.clear();
+        statistics.clear();
+
+        Page<LoanHistoryRow> result = repository.findWithHistoryByBookIsbnOrCustomer("none", "fulano", PageRequest.of(0, PAGE_SIZE));
+
+        assertThat(result.getContent()).hasSize(PAGE_SIZE).allMatch(row -> row.getTitle() != null);
+        assertThat(result.getTotalElements()).isEqualTo(PAGE_SIZE + 1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+}
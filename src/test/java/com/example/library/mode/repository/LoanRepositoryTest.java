@@ -2,6 +2,9 @@ package com.example.library.mode.repository;
 
 import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
+import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.LoanDueDate;
+import com.example.library.model.repository.LoanHistoryRow;
 import com.example.library.model.repository.LoanRepository;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -9,16 +12,26 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.example.library.mode.repository.BookRepositoryTest.createNewBook;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
@@ -30,15 +43,27 @@ public class LoanRepositoryTest {
     @Autowired
     LoanRepository repository;
 
+    @Autowired
+    BookRepository bookRepository;
+
     @Test
-    @DisplayName("Deve verificar se existe empréstimo não devolvido para o livro.")
-    public void existsByBookAndNotReturned() {
-        Loan loan = createAndPersistLoan(LocalDate.now());
-        Book book = loan.getBook();
+    @DisplayName("Deve marcar o livro como emprestado no empréstimo e liberá-lo na devolução.")
+    public void activeLoanMarker() {
+        Book book = entityManager.persistAndFlush(createNewBook("123"));
+
+        Loan loan = repository.checkout("123", "fulano", "fulano@email.com", LocalDate.now(), LocalDate.now().plusDays(5)).get();
+        entityManager.clear();
+
+        assertThat(entityManager.find(Book.class, book.getId()).getActiveLoanId()).isEqualTo(loan.getId());
+        assertThat(bookRepository.existsByIdAndActiveLoanIdIsNotNull(book.getId())).isTrue();
+        assertThat(bookRepository.findByActiveLoanIdIn(Collections.singleton(loan.getId()))).extracting(Book::getId)
+                .containsExactly(book.getId());
 
-        Boolean exists = repository.existsByBookAndNotReturned(book);
+        repository.markReturned(Collections.singleton(loan.getId()));
+        bookRepository.markAvailable(Collections.singleton(loan.getId()));
 
-        assertThat(exists).isTrue();
+        assertThat(entityManager.find(Book.class, book.getId()).getActiveLoanId()).isNull();
+        assertThat(repository.checkout("123", "ciclano", "ciclano@email.com", LocalDate.now(), LocalDate.now().plusDays(5))).isPresent();
     }
 
     @Test
@@ -59,30 +84,260 @@ public class LoanRepositoryTest {
     }
 
     @Test
-    @DisplayName("Deve obter empréstimos cuja data empréstimo for menor ou igual a 5 dias atrás e não retornados")
-    public void findByLoanDateLessThanAndNotReturned() {
+    @DisplayName("Deve buscar empréstimos pelo isbn do livro ou customer a partir do último id retornado.")
+    public void findByBookIsbnOrCustomerAfter() {
+        Loan first = createAndPersistLoan("123", LocalDate.now());
+        Loan second = createAndPersistLoan("456", LocalDate.now());
+
+        Slice<Loan> firstSlice = repository.findByBookIsbnOrCustomerAfter(
+                "999", "fulano", 0L, PageRequest.of(0, 1));
+        Slice<Loan> secondSlice = repository.findByBookIsbnOrCustomerAfter(
+                "999", "fulano", first.getId(), PageRequest.of(0, 1));
+
+        assertThat(firstSlice.getContent()).containsExactly(first);
+        assertThat(firstSlice.hasNext()).isTrue();
+        assertThat(secondSlice.getContent()).containsExactly(second);
+        assertThat(secondSlice.hasNext()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve obter empréstimos não retornados com vencimento anterior à data informada")
+    public void findDueBeforeAndNotReturned() {
         Loan loan = createAndPersistLoan(LocalDate.now().minusDays(5));
 
-        List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+        List<Loan> result = repository.findDueBeforeAndNotReturned(LocalDate.now().plusDays(1));
 
         assertThat(result).hasSize(1).contains(loan);
     }
 
     @Test
-    @DisplayName("Não deve obter empréstimos cuja data empréstimo for menor ou igual a 5 dias atrás e não retornados")
-    public void notFindByLoanDateLessThanAndNotReturned() {
+    @DisplayName("Não deve obter empréstimos com vencimento a partir da data informada")
+    public void notFindDueBeforeAndNotReturned() {
         Loan loan = createAndPersistLoan(LocalDate.now());
 
-        List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+        List<Loan> result = repository.findDueBeforeAndNotReturned(LocalDate.now().plusDays(1));
 
         assertThat(result).isEmpty();
     }
 
+    @Test
+    @DisplayName("Deve obter empréstimos atrasados com e-mail da partição a partir do último id processado, em ordem de id")
+    public void findLateLoansAfter() {
+        Loan first = createAndPersistLoan("123", LocalDate.now().minusDays(6));
+        Loan second = createAndPersistLoan("456", LocalDate.now().minusDays(7));
+        Loan third = createAndPersistLoan("789", LocalDate.now().minusDays(8));
+        createAndPersistLoan("012", LocalDate.now().minusDays(5));
+        createAndPersistLoan("345", LocalDate.now().minusDays(9)).setCustomerEmail(null);
+        entityManager.flush();
+        int partition = (int) (first.getId() % 2);
+
+        List<Loan> firstChunk = repository.findLateLoansAfter(
+                LocalDate.now(), partition, 2, 0L, PageRequest.of(0, 1));
+        List<Loan> secondChunk = repository.findLateLoansAfter(
+                LocalDate.now(), partition, 2, first.getId(), PageRequest.of(0, 1));
+        List<Loan> lastChunk = repository.findLateLoansAfter(
+                LocalDate.now(), partition, 2, third.getId(), PageRequest.of(0, 1));
+        List<Loan> otherPartition = repository.findLateLoansAfter(
+                LocalDate.now(), 1 - partition, 2, 0L, PageRequest.of(0, 10));
+
+        assertThat(firstChunk).containsExactly(first);
+        assertThat(secondChunk).containsExactly(third);
+        assertThat(lastChunk).isEmpty();
+        assertThat(otherPartition).containsExactly(second);
+    }
+
+    @Test
+    @DisplayName("Deve obter o vencimento dos empréstimos ativos e dos alterados desde o instante informado")
+    public void findDueDates() {
+        Instant before = Instant.now().minusSeconds(1);
+        Loan active = createAndPersistLoan("123", LocalDate.now());
+        Loan returned = createAndPersistLoan("456", LocalDate.now());
+        returned.setReturned(true);
+        entityManager.flush();
+
+        List<LoanDueDate> activeLoans = repository.findActiveDueDatesAfter(0L, PageRequest.of(0, 10));
+        List<LoanDueDate> changed = repository.findDueDatesChangedAfter(before, 0L, PageRequest.of(0, 10));
+        List<LoanDueDate> unchanged = repository.findDueDatesChangedAfter(Instant.now().plusSeconds(60), 0L, PageRequest.of(0, 10));
+
+        assertThat(activeLoans).extracting(LoanDueDate::getId, LoanDueDate::getDueDate)
+                .containsExactly(tuple(active.getId(), LocalDate.now().plusDays(5)));
+        assertThat(changed).extracting(LoanDueDate::getId, LoanDueDate::getReturned)
+                .containsExactly(tuple(active.getId(), false), tuple(returned.getId(), true));
+        assertThat(unchanged).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve marcar como devolvidos apenas os empréstimos ainda não devolvidos.")
+    public void markReturned() {
+        Loan lent = createAndPersistLoan("123", LocalDate.now());
+        Loan returned = createAndPersistLoan("456", LocalDate.now());
+        returned.setReturned(true);
+        entityManager.flush();
+
+        int updated = repository.markReturned(Arrays.asList(lent.getId(), returned.getId()));
+
+        assertThat(updated).isEqualTo(1);
+        assertThat(repository.findNotReturnedIds(Arrays.asList(lent.getId(), returned.getId()))).isEmpty();
+        assertThat(repository.findExistingIds(Arrays.asList(lent.getId(), 999L))).containsExactly(lent.getId());
+    }
+
+    @Test
+    @DisplayName("Deve registrar o empréstimo pelo isbn em uma única instrução.")
+    public void checkout() {
+        Book book = entityManager.persistAndFlush(createNewBook("123"));
+
+        Optional<Loan> checkout = repository.checkout("123", "fulano", "fulano@email.com", LocalDate.now(), LocalDate.now().plusDays(5));
+
+        assertThat(checkout).isPresent();
+        assertThat(checkout.get().getBook().getId()).isEqualTo(book.getId());
+        Loan loan = entityManager.find(Loan.class, checkout.get().getId());
+        assertThat(loan.getBook().getId()).isEqualTo(book.getId());
+        assertThat(loan.getCustomer()).isEqualTo("fulano");
+        assertThat(loan.getCustomerEmail()).isEqualTo("fulano@email.com");
+        assertThat(loan.getDueDate()).isEqualTo(LocalDate.now().plusDays(5));
+        assertThat(loan.getReturned()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Não deve registrar empréstimo para isbn inexistente.")
+    public void checkoutUnknownIsbn() {
+        Optional<Loan> checkout = repository.checkout("999", "fulano", "fulano@email.com", LocalDate.now(), LocalDate.now().plusDays(5));
+
+        assertThat(checkout).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Não deve registrar empréstimo para livro marcado como emprestado.")
+    public void checkoutMarkedBook() {
+        entityManager.persistAndFlush(createNewBook("123"));
+        repository.checkout("123", "fulano", "fulano@email.com", LocalDate.now(), LocalDate.now().plusDays(5));
+
+        Optional<Loan> checkout = repository.checkout("123", "ciclano", "ciclano@email.com", LocalDate.now(), LocalDate.now().plusDays(5));
+
+        assertThat(checkout).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve permitir apenas um empréstimo ativo por livro.")
+    public void checkoutLentBook() {
+        Loan loan = createAndPersistLoan("123", LocalDate.now());
+        entityManager.flush();
+
+        Throwable exception = catchThrowable(() ->
+                repository.checkout("123", "ciclano", "ciclano@email.com", LocalDate.now(), LocalDate.now().plusDays(5)));
+
+        assertThat(exception).isInstanceOf(DataIntegrityViolationException.class);
+
+        loan.setReturned(true);
+        entityManager.flush();
+
+        assertThat(repository.checkout("123", "ciclano", "ciclano@email.com", LocalDate.now(), LocalDate.now().plusDays(5))).isPresent();
+    }
+
+    @Test
+    @DisplayName("Deve percorrer em stream os empréstimos do isbn ou cliente, ou todos sem filtro.")
+    public void streamByBookIsbnOrCustomer() {
+        Loan first = createAndPersistLoan("123", LocalDate.now());
+        Loan second = createAndPersistLoan("456", LocalDate.now());
+        second.setCustomer("ciclano");
+        entityManager.flush();
+
+        try (Stream<Loan> loans = repository.streamByBookIsbnOrCustomer("123", null)) {
+            assertThat(loans.map(Loan::getId).collect(Collectors.toList())).containsExactly(first.getId());
+        }
+        try (Stream<Loan> loans = repository.streamByBookIsbnOrCustomer(null, "ciclano")) {
+            assertThat(loans.map(l -> l.getBook().getIsbn()).collect(Collectors.toList())).containsExactly("456");
+        }
+        try (Stream<Loan> loans = repository.streamByBookIsbnOrCustomer(null, null)) {
+            assertThat(loans.map(Loan::getId).collect(Collectors.toList())).containsExactly(first.getId(), second.getId());
+        }
+    }
+
+    @Test
+    @DisplayName("Deve mover para o histórico apenas os empréstimos devolvidos antes do instante informado.")
+    public void archiveReturned() {
+        Loan active = createAndPersistLoan("123", LocalDate.now());
+        Loan returned = createAndPersistLoan("456", LocalDate.now());
+        returned.setReturned(true);
+        entityManager.flush();
+
+        assertThat(repository.findArchivableIds(Instant.now().minusSeconds(60), PageRequest.of(0, 10))).isEmpty();
+        List<Long> ids = repository.findArchivableIds(Instant.now().plusSeconds(60), PageRequest.of(0, 10));
+        assertThat(ids).containsExactly(returned.getId());
+
+        assertThat(repository.copyToHistory(ids)).isEqualTo(1);
+        assertThat(repository.deleteReturned(Arrays.asList(active.getId(), returned.getId()))).isEqualTo(1);
+
+        assertThat(repository.findById(returned.getId())).isEmpty();
+        assertThat(repository.findById(active.getId())).isPresent();
+        assertThat(repository.findByBookIsbnOrCustomer("999", "fulano", PageRequest.of(0, 10)).getContent())
+                .extracting(Loan::getId).containsExactly(active.getId());
+    }
+
+    @Test
+    @DisplayName("Deve buscar empréstimos ativos e do histórico pelo isbn do livro, customer ou livro, em ordem de id.")
+    public void findWithHistory() {
+        Loan active = createAndPersistLoan("123", LocalDate.now());
+        Loan returned = createAndPersistLoan("456", LocalDate.now());
+        returned.setReturned(true);
+        entityManager.flush();
+        List<Long> ids = Collections.singletonList(returned.getId());
+        repository.copyToHistory(ids);
+        repository.deleteReturned(ids);
+
+        Page<LoanHistoryRow> page = repository.findWithHistoryByBookIsbnOrCustomer("999", "fulano", PageRequest.of(0, 10));
+        Page<LoanHistoryRow> byIsbn = repository.findWithHistoryByBookIsbnOrCustomer("456", "ciclano", PageRequest.of(0, 10));
+        Page<LoanHistoryRow> byBook = repository.findWithHistoryByBook(returned.getBook().getId(), PageRequest.of(0, 10));
+
+        assertThat(page.getContent()).extracting(LoanHistoryRow::getId, LoanHistoryRow::getReturned)
+                .containsExactly(tuple(active.getId(), false), tuple(returned.getId(), true));
+        assertThat(page.getTotalElements()).isEqualTo(2);
+        assertThat(byIsbn.getContent()).extracting(LoanHistoryRow::getId).containsExactly(returned.getId());
+        LoanHistoryRow row = byIsbn.getContent().get(0);
+        assertThat(row.getBookId()).isEqualTo(returned.getBook().getId());
+        assertThat(row.getIsbn()).isEqualTo("456");
+        assertThat(row.getTitle()).isEqualTo(returned.getBook().getTitle());
+        assertThat(row.getCustomerEmail()).isEqualTo(returned.getCustomerEmail());
+        assertThat(row.getLoanDate()).isEqualTo(returned.getLoanDate());
+        assertThat(byBook.getContent()).extracting(LoanHistoryRow::getId).containsExactly(returned.getId());
+        assertThat(byBook.getTotalElements()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve buscar empréstimos ativos e do histórico a partir do último id retornado.")
+    public void findWithHistoryAfter() {
+        Loan active = createAndPersistLoan("123", LocalDate.now());
+        Loan returned = createAndPersistLoan("456", LocalDate.now());
+        returned.setReturned(true);
+        entityManager.flush();
+        List<Long> ids = Collections.singletonList(returned.getId());
+        repository.copyToHistory(ids);
+        repository.deleteReturned(ids);
+
+        Slice<LoanHistoryRow> firstSlice = repository.findWithHistoryByBookIsbnOrCustomerAfter(
+                "999", "fulano", 0L, PageRequest.of(0, 1));
+        Slice<LoanHistoryRow> secondSlice = repository.findWithHistoryByBookIsbnOrCustomerAfter(
+                "999", "fulano", active.getId(), PageRequest.of(0, 1));
+        Slice<LoanHistoryRow> byBook = repository.findWithHistoryByBookAfter(
+                returned.getBook().getId(), 0L, PageRequest.of(0, 10));
+
+        assertThat(firstSlice.getContent()).extracting(LoanHistoryRow::getId).containsExactly(active.getId());
+        assertThat(firstSlice.hasNext()).isTrue();
+        assertThat(secondSlice.getContent()).extracting(LoanHistoryRow::getId).containsExactly(returned.getId());
+        assertThat(secondSlice.hasNext()).isFalse();
+        assertThat(byBook.getContent()).extracting(LoanHistoryRow::getId).containsExactly(returned.getId());
+    }
+
     private Loan createAndPersistLoan(LocalDate localDate) {
-        Book book = createNewBook("123");
+        return createAndPersistLoan("123", localDate);
+    }
+
+    private Loan createAndPersistLoan(String isbn, LocalDate localDate) {
+        Book book = createNewBook(isbn);
         entityManager.persist(book);
 
-        Loan loan = Loan.builder().book(book).customer("fulano").loanDate(localDate).build();
+        Loan loan = Loan.builder().book(book).customer("fulano").customerEmail("fulano@email.com")
+                .loanDate(localDate).dueDate(localDate.plusDays(5)).build();
         return entityManager.persist(loan);
     }
 }
@@ -0,0 +1,130 @@
+package com.example.library.mode.repository;
+
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import com.example.library.model.entity.OutboxEvent;
+import com.example.library.model.repository.OutboxEventRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.library.mode.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class OutboxEventRepositoryTest {
+    @Autowired
+    TestEntityManager entityManager;
+
+    @Autowired
+    OutboxEventRepository repository;
+
+    @Test
+    @DisplayName("Deve registrar cada evento de empréstimo uma única vez, com os dados do livro.")
+    public void enqueueTest() {
+        Loan first = persistLoan("123", "fulano@email.com");
+        Loan second = persistLoan("456", "ciclano@email.com");
+        Loan withoutEmail = persistLoan("789", null);
+        List<Long> ids = Arrays.asList(first.getId(), second.getId(), withoutEmail.getId());
+
+        assertThat(repository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), ids)).isEqualTo(2);
+        assertThat(repository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), ids)).isZero();
+        assertThat(repository.enqueue(OutboxEvent.Type.LOAN_RETURNED.name(), Collections.singleton(first.getId()))).isEqualTo(1);
+
+        List<OutboxEvent> due = repository.findAll(Sort.by("id"));
+        assertThat(repository.findDueIds(Instant.now().plusSeconds(1), 10, PageRequest.of(0, 10)))
+                .containsExactlyElementsOf(due.stream().map(OutboxEvent::getId).collect(Collectors.toList()));
+        assertThat(due).extracting(OutboxEvent::getDedupKey)
+                .containsExactly("LOAN_CREATED:" + first.getId(), "LOAN_CREATED:" + second.getId(), "LOAN_RETURNED:" + first.getId());
+        assertThat(due.get(0).getRecipient()).isEqualTo("fulano@email.com");
+        assertThat(due.get(0).getBookTitle()).isEqualTo("Title");
+        assertThat(due.get(0).getAttempts()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve registrar a mensagem de atraso não enviada uma única vez por dia.")
+    public void enqueueMessageTest() {
+        Loan loan = persistLoan("123", "fulano@email.com");
+        String type = OutboxEvent.Type.LOAN_LATE.name();
+
+        assertThat(repository.enqueueMessage(type, type + ":" + loan.getId() + ":2021-01-10", loan.getId(), "Devolva")).isEqualTo(1);
+        assertThat(repository.enqueueMessage(type, type + ":" + loan.getId() + ":2021-01-10", loan.getId(), "Devolva")).isZero();
+        assertThat(repository.enqueueMessage(type, type + ":" + loan.getId() + ":2021-01-11", loan.getId(), "Devolva!")).isEqualTo(1);
+
+        List<OutboxEvent> events = repository.findAll(Sort.by("id"));
+        assertThat(events).extracting(OutboxEvent::getMessage).containsExactly("Devolva", "Devolva!");
+        assertThat(events.get(0).getType()).isEqualTo(OutboxEvent.Type.LOAN_LATE);
+        assertThat(events.get(0).getRecipient()).isEqualTo("fulano@email.com");
+        assertThat(events.get(0).getBookTitle()).isEqualTo("Title");
+    }
+
+    @Test
+    @DisplayName("Deve buscar somente eventos pendentes, vencidos e abaixo do limite de tentativas.")
+    public void findDueTest() {
+        Loan loan = persistLoan("123", "fulano@email.com");
+        Loan other = persistLoan("456", "ciclano@email.com");
+        Loan last = persistLoan("789", "beltrano@email.com");
+        repository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), Arrays.asList(loan.getId(), other.getId(), last.getId()));
+        List<OutboxEvent> events = repository.findAll(Sort.by("id"));
+
+        Instant now = Instant.now().plusSeconds(1);
+        repository.markDispatched(Collections.singleton(events.get(0).getId()), now);
+        repository.retryLater(events.get(1).getId(), now.plusSeconds(60));
+        entityManager.clear();
+
+        assertThat(repository.findDueIds(now, 10, PageRequest.of(0, 10)))
+                .containsExactly(events.get(2).getId());
+        assertThat(repository.findDueIds(now.plusSeconds(120), 10, PageRequest.of(0, 10)))
+                .containsExactly(events.get(1).getId(), events.get(2).getId());
+        assertThat(repository.findDueIds(now.plusSeconds(120), 1, PageRequest.of(0, 10)))
+                .containsExactly(events.get(2).getId());
+    }
+
+    @Test
+    @DisplayName("Deve reservar cada evento para um único despachante até o fim da concessão.")
+    public void claimTest() {
+        Loan loan = persistLoan("123", "fulano@email.com");
+        Loan other = persistLoan("456", "ciclano@email.com");
+        repository.enqueue(OutboxEvent.Type.LOAN_CREATED.name(), Arrays.asList(loan.getId(), other.getId()));
+        Instant now = Instant.now().plusSeconds(1);
+        List<Long> due = repository.findDueIds(now, 10, PageRequest.of(0, 10));
+
+        assertThat(repository.claim(due.subList(0, 1), "first", now, now.plusSeconds(60), 10)).isEqualTo(1);
+        assertThat(repository.claim(due, "second", now, now.plusSeconds(60), 10)).isEqualTo(1);
+        entityManager.clear();
+
+        assertThat(repository.findClaimed(due, "first")).extracting(OutboxEvent::getId).containsExactly(due.get(0));
+        assertThat(repository.findClaimed(due, "second")).extracting(OutboxEvent::getId).containsExactly(due.get(1));
+        assertThat(repository.findDueIds(now, 10, PageRequest.of(0, 10))).isEmpty();
+
+        Instant expired = now.plusSeconds(61);
+        assertThat(repository.findDueIds(expired, 10, PageRequest.of(0, 10))).containsExactlyElementsOf(due);
+        assertThat(repository.claim(due, "third", expired, expired.plusSeconds(60), 10)).isEqualTo(2);
+    }
+
+    private Loan persistLoan(String isbn, String email) {
+        Book book = entityManager.persist(createNewBook(isbn));
+        return entityManager.persistAndFlush(Loan.builder()
+                .book(book)
+                .customer("Fulano")
+                .customerEmail(email)
+                .loanDate(LocalDate.now())
+                .build());
+    }
+}
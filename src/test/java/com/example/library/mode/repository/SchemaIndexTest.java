@@ -0,0 +1,70 @@
+package com.example.library.mode.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class SchemaIndexTest {
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Deve usar o índice único de isbn ao buscar livro por isbn.")
+    public void findByIsbnUsesIndex() {
+        String plan = explain("select b.id from book b where b.isbn = '123'");
+
+        assertThat(plan).containsIgnoringCase("UX_BOOK_ISBN");
+    }
+
+    @Test
+    @DisplayName("Não deve permitir dois livros com o mesmo isbn.")
+    public void duplicatedIsbnIsRejected() {
+        jdbcTemplate.update("insert into book (title, author, isbn) values ('Title', 'Author', '123')");
+
+        assertThatThrownBy(() ->
+                jdbcTemplate.update("insert into book (title, author, isbn) values ('Other', 'Other', '123')"))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    @DisplayName("Deve usar o índice composto de livro e devolução ao verificar empréstimo ativo.")
+    public void existsByBookAndNotReturnedUsesIndex() {
+        String plan = explain("select count(l.id) from loan l where l.id_book = 1 and l.returned = false");
+
+        assertThat(plan).containsIgnoringCase("IX_LOAN_BOOK_RETURNED");
+    }
+
+    @Test
+    @DisplayName("Deve usar o índice de vencimento ao buscar empréstimos atrasados.")
+    public void lateLoansUsesIndex() {
+        String plan = explain("select l.id from loan l where l.id > 0 and l.due_date < date '2021-01-01'" +
+                " and l.returned = false order by l.id");
+
+        assertThat(plan).containsIgnoringCase("IX_LOAN_DUE");
+    }
+
+    @Test
+    @DisplayName("Deve usar o índice único de isbn na paginação por cursor de livros.")
+    public void bookKeysetUsesIndex() {
+        String plan = explain("select b.id from book b where b.isbn >= '123'" +
+                " and (b.isbn > '123' or b.id > 10) order by b.isbn, b.id");
+
+        assertThat(plan).containsIgnoringCase("UX_BOOK_ISBN");
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.queryForObject("explain " + sql, String.class);
+    }
+}
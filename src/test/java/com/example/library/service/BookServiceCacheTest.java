@@ -0,0 +1,129 @@
+package com.example.library.service;
+
+import com.example.library.config.CacheConfig;
+import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookRepository;
+import com.example.library.service.impl.BookServiceImpl;
+import com.example.library.service.search.BookSearchIndex;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(classes = {CacheConfig.class, BookServiceImpl.class})
+@ImportAutoConfiguration(CacheAutoConfiguration.class)
+public class BookServiceCacheTest {
+    @Autowired
+    BookService service;
+
+    @MockBean
+    BookRepository repository;
+
+    @MockBean
+    EntityManagerFactory entityManagerFactory;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    @MockBean
+    OptimisticLockRetry retry;
+
+    @MockBean
+    LibraryMetrics metrics;
+
+    @Test
+    @DisplayName("Deve obter do cache um livro já consultado por Id e invalidá-lo ao atualizar.")
+    public void getByIdCacheTest() {
+        Book book = Book.builder().id(1L).author("Author").title("Title").isbn("123").build();
+        when(repository.findById(1L)).thenReturn(Optional.of(book));
+        when(repository.save(book)).thenReturn(book);
+
+        service.getById(1L);
+        Optional<Book> cachedBook = service.getById(1L);
+
+        assertThat(cachedBook).contains(book);
+        verify(repository, times(1)).findById(1L);
+
+        service.update(book);
+        service.getById(1L);
+
+        verify(repository, times(2)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve entregar uma cópia do livro em cache a cada consulta, sem expor alterações não gravadas.")
+    public void getByIdCopyTest() {
+        Book book = Book.builder().id(3L).author("Author").title("Title").isbn("789").version(1L).build();
+        when(repository.findById(3L)).thenReturn(Optional.of(book));
+
+        Book first = service.getById(3L).get();
+        first.setTitle("Edited");
+        Book second = service.getById(3L).get();
+        second.setAuthor("Edited");
+        Book third = service.getById(3L).get();
+
+        assertThat(second).isNotSameAs(first).isNotSameAs(third);
+        assertThat(third.getTitle()).isEqualTo("Title");
+        assertThat(third.getAuthor()).isEqualTo("Author");
+        assertThat(third.getVersion()).isEqualTo(1L);
+        verify(repository, times(1)).findById(3L);
+    }
+
+    @Test
+    @DisplayName("Deve substituir o livro em cache ao recarregá-lo da base.")
+    public void refreshTest() {
+        when(repository.findById(4L))
+                .thenReturn(Optional.of(Book.builder().id(4L).title("Title").isbn("012").version(1L).build()))
+                .thenReturn(Optional.of(Book.builder().id(4L).title("Changed").isbn("012").version(2L).build()));
+
+        service.getById(4L);
+        service.refresh(4L);
+        Optional<Book> cachedBook = service.getById(4L);
+
+        assertThat(cachedBook.get().getVersion()).isEqualTo(2L);
+        assertThat(cachedBook.get().getTitle()).isEqualTo("Changed");
+        verify(repository, times(2)).findById(4L);
+    }
+
+    @Test
+    @DisplayName("Deve obter do cache um livro já consultado por Isbn e invalidá-lo ao excluir.")
+    public void getBookByIsbnCacheTest() {
+        Book book = Book.builder().id(2L).author("Author").title("Title").isbn("456").build();
+        when(repository.findByIsbn("456")).thenReturn(Optional.of(book));
+
+        service.getBookByIsbn("456");
+        service.getBookByIsbn("456");
+
+        verify(repository, times(1)).findByIsbn("456");
+
+        service.delete(book);
+        service.getBookByIsbn("456");
+
+        verify(repository, times(2)).findByIsbn("456");
+    }
+
+    @Test
+    @DisplayName("Não deve manter em cache a ausência de um livro.")
+    public void notCacheMissingBookTest() {
+        when(repository.findByIsbn("789")).thenReturn(Optional.empty());
+
+        service.getBookByIsbn("789");
+        service.getBookByIsbn("789");
+
+        verify(repository, times(2)).findByIsbn("789");
+    }
+}
@@ -1,9 +1,11 @@
 package com.example.library.service;
 
+import com.example.library.api.dto.BookImportResultDTO;
 import com.example.library.exception.BusinessException;
 import com.example.library.model.entity.Book;
 import com.example.library.model.repository.BookRepository;
 import com.example.library.service.impl.BookServiceImpl;
+import com.example.library.service.search.BookSearchIndex;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,10 +17,16 @@ import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,9 +42,22 @@ public class BookServiceTest {
     @MockBean
     BookRepository repository;
 
+    @MockBean
+    EntityManager entityManager;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    @MockBean
+    LibraryMetrics metrics;
+
     @BeforeEach
     public void setup() {
-        service = new BookServiceImpl(repository);
+        service = new BookServiceImpl(repository, searchIndex, new OptimisticLockRetry(transactionManager, 3, 0), metrics);
+        ReflectionTestUtils.setField(service, "entityManager", entityManager);
     }
 
     @Test
@@ -63,6 +84,7 @@ public class BookServiceTest {
         assertThat(savedBook.getAuthor()).isEqualTo("Author");
         assertThat(savedBook.getTitle()).isEqualTo("Title");
         assertThat(savedBook.getIsbn()).isEqualTo("123");
+        verify(searchIndex).index(savedBook);
     }
 
     @Test
@@ -119,6 +141,7 @@ public class BookServiceTest {
         org.junit.jupiter.api.Assertions.assertDoesNotThrow(() -> service.delete(book));
 
         verify(repository, Mockito.times(1)).delete(book);
+        verify(searchIndex).remove(1L);
     }
 
     @Test
@@ -150,6 +173,24 @@ public class BookServiceTest {
         assertThat(book.getAuthor()).isEqualTo(updateBook.getAuthor());
         assertThat(book.getTitle()).isEqualTo(updateBook.getTitle());
         assertThat(book.getIsbn()).isEqualTo(updateBook.getIsbn());
+        verify(searchIndex).index(updateBook);
+    }
+
+    @Test
+    @DisplayName("Deve reaplicar a alteração sobre a versão atual do livro após conflito de versão.")
+    public void updateRetryTest() {
+        Book stale = Book.builder().id(1L).author("Author").title("Title").isbn("123").version(1L).build();
+        Book current = Book.builder().id(1L).author("Author").title("Title").isbn("123").version(2L).build();
+        when(repository.findById(1L)).thenReturn(Optional.of(stale), Optional.of(current));
+        when(repository.saveAndFlush(stale)).thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+        when(repository.saveAndFlush(current)).thenReturn(current);
+
+        Optional<Book> book = service.update(1L, b -> b.setTitle("New title"));
+
+        assertThat(book).containsSame(current);
+        assertThat(current.getTitle()).isEqualTo("New title");
+        verify(repository, Mockito.times(2)).findById(1L);
+        verify(searchIndex).index(current);
     }
 
     @Test
@@ -182,6 +223,37 @@ public class BookServiceTest {
         assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
 
+    @Test
+    @DisplayName("Deve buscar livros pelo índice, mantendo a ordem de relevância.")
+    public void searchBookTest() {
+        PageRequest pageRequest = PageRequest.of(0, 10);
+        Book first = Book.builder().id(2L).author("Author").title("Title").isbn("456").build();
+        Book second = Book.builder().id(1L).author("Author").title("Title").isbn("123").build();
+
+        when(searchIndex.search("title", pageRequest)).thenReturn(new PageImpl<>(Arrays.asList(2L, 1L), pageRequest, 2));
+        when(repository.findAllById(Arrays.asList(2L, 1L))).thenReturn(Arrays.asList(second, first));
+
+        Page<Book> result = service.search("title", pageRequest);
+
+        Assertions.assertThat(result.getContent()).containsExactly(first, second);
+        assertThat(result.getTotalElements()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve descartar do índice os livros excluídos em outra instância.")
+    public void searchDeletedBookTest() {
+        PageRequest pageRequest = PageRequest.of(0, 10);
+        Book book = Book.builder().id(1L).author("Author").title("Title").isbn("123").build();
+
+        when(searchIndex.search("title", pageRequest)).thenReturn(new PageImpl<>(Arrays.asList(2L, 1L), pageRequest, 2));
+        when(repository.findAllById(Arrays.asList(2L, 1L))).thenReturn(Collections.singletonList(book));
+
+        Page<Book> result = service.search("title", pageRequest);
+
+        assertThat(result.getContent()).containsExactly(book);
+        verify(searchIndex).remove(2L);
+    }
+
     @Test
     @DisplayName("Deve obter um livro por Isbn.")
     public void getBookByIsbnTest() {
@@ -197,6 +269,33 @@ public class BookServiceTest {
         verify(repository, Mockito.times(1)).findByIsbn(isbn);
     }
 
+    @Test
+    @DisplayName("Deve importar livros, reportando isbns já cadastrados ou repetidos no lote.")
+    public void importBooksTest() {
+        Book existing = Book.builder().author("Author").title("Title").isbn("123").build();
+        Book newBook = Book.builder().author("Author").title("Title").isbn("456").build();
+        Book repeated = Book.builder().author("Author").title("Title").isbn("456").build();
+
+        when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(Collections.singleton("123"));
+        when(repository.saveAll(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Book> books = invocation.getArgument(0);
+            books.forEach(book -> book.setId(10L));
+            return books;
+        });
+
+        List<BookImportResultDTO> results = service.importBooks(Arrays.asList(existing, newBook, repeated));
+
+        assertThat(results).extracting(BookImportResultDTO::getStatus).containsExactly(
+                BookImportResultDTO.Status.DUPLICATED,
+                BookImportResultDTO.Status.CREATED,
+                BookImportResultDTO.Status.DUPLICATED);
+        assertThat(results.get(1).getId()).isEqualTo(10L);
+
+        verify(repository).saveAll(Collections.singletonList(newBook));
+        verify(entityManager).clear();
+        verify(searchIndex).index(newBook);
+    }
+
     private Book createNewBook() {
         return Book.builder().author("Author").title("Title").isbn("123").build();
     }
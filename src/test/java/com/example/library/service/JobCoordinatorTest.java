@@ -0,0 +1,91 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.JobPartition;
+import com.example.library.model.repository.JobPartitionRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class JobCoordinatorTest {
+    private static final String JOB = "test-job";
+
+    @Autowired
+    JobPartitionRepository repository;
+
+    @Test
+    @DisplayName("Deve conceder cada partição a uma única instância por dia, até ser concluída.")
+    public void claimTest() {
+        JobCoordinator first = new JobCoordinator(repository, 60_000);
+        JobCoordinator second = new JobCoordinator(repository, 60_000);
+        LocalDate today = LocalDate.now();
+        first.plan(JOB, 2);
+        second.plan(JOB, 2);
+
+        assertThat(first.claim(JOB, 0, today)).get()
+                .extracting(JobPartition::getOwner, JobPartition::getLastId)
+                .containsExactly(first.getOwner(), 0L);
+        assertThat(second.claim(JOB, 0, today)).isEmpty();
+        assertThat(second.claim(JOB, 1, today)).isPresent();
+
+        assertThat(first.checkpoint(JOB, 0, 10L)).isTrue();
+        assertThat(second.checkpoint(JOB, 0, 20L)).isFalse();
+        assertThat(first.complete(JOB, 0)).isTrue();
+
+        assertThat(first.claim(JOB, 0, today)).isEmpty();
+        assertThat(second.reclaim(JOB, 0, today)).isEmpty();
+        assertThat(second.claim(JOB, 0, today.plusDays(1))).get()
+                .extracting(JobPartition::getLastId, JobPartition::getCompleted)
+                .containsExactly(0L, false);
+    }
+
+    @Test
+    @DisplayName("Deve retomar uma partição cuja concessão expirou a partir do último registro.")
+    public void reclaimTest() {
+        JobCoordinator crashed = new JobCoordinator(repository, -1_000);
+        JobCoordinator survivor = new JobCoordinator(repository, 60_000);
+        LocalDate today = LocalDate.now();
+        crashed.plan(JOB, 2);
+
+        assertThat(crashed.claim(JOB, 0, today)).isPresent();
+        assertThat(crashed.checkpoint(JOB, 0, 7L)).isTrue();
+
+        assertThat(survivor.reclaim(JOB, 1, today)).isEmpty();
+        assertThat(survivor.reclaim(JOB, 0, today)).get()
+                .extracting(JobPartition::getOwner, JobPartition::getLastId)
+                .containsExactly(survivor.getOwner(), 7L);
+        assertThat(crashed.checkpoint(JOB, 0, 8L)).isFalse();
+        assertThat(crashed.complete(JOB, 0)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve expor o progresso de cada partição no actuator.")
+    public void endpointTest() {
+        JobCoordinator coordinator = new JobCoordinator(repository, 60_000);
+        coordinator.plan(JOB, 2);
+        coordinator.claim(JOB, 1, LocalDate.now());
+        coordinator.checkpoint(JOB, 1, 42L);
+        JobsEndpoint endpoint = new JobsEndpoint(coordinator);
+
+        Map<String, List<JobPartition>> jobs = endpoint.jobs();
+
+        assertThat(jobs).containsOnlyKeys(JOB);
+        assertThat(endpoint.job(JOB)).extracting(JobPartition::getPartition, JobPartition::getLastId, JobPartition::getOwner)
+                .containsExactly(
+                        tuple(0, 0L, null),
+                        tuple(1, 42L, coordinator.getOwner()));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.JobPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class LoanArchiverTest {
+    LoanArchiver archiver;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    JobCoordinator coordinator;
+
+    @BeforeEach
+    public void setup() {
+        archiver = new LoanArchiver(loanService, coordinator);
+        ReflectionTestUtils.setField(archiver, "maxAgeDays", 365L);
+        ReflectionTestUtils.setField(archiver, "batchSize", 2);
+        ReflectionTestUtils.setField(archiver, "windowMillis", 60_000L);
+        ReflectionTestUtils.setField(archiver, "pauseMillis", 0L);
+        when(coordinator.claim(eq(LoanArchiver.JOB_ARCHIVE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.of(JobPartition.builder().job(LoanArchiver.JOB_ARCHIVE_LOANS).partition(0).build()));
+        when(coordinator.checkpoint(eq(LoanArchiver.JOB_ARCHIVE_LOANS), eq(0), anyLong())).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Deve arquivar os empréstimos devolvidos há mais tempo que o limite, em lotes, registrando o progresso.")
+    public void archiveTest() {
+        when(loanService.archiveReturned(any(Instant.class), eq(2)))
+                .thenReturn(Arrays.asList(1L, 2L), Collections.singletonList(5L), Collections.emptyList());
+
+        assertThat(archiver.archive()).isEqualTo(3);
+
+        verify(coordinator).plan(LoanArchiver.JOB_ARCHIVE_LOANS, 1);
+        verify(coordinator).checkpoint(LoanArchiver.JOB_ARCHIVE_LOANS, 0, 2L);
+        verify(coordinator).checkpoint(LoanArchiver.JOB_ARCHIVE_LOANS, 0, 5L);
+        verify(coordinator).complete(LoanArchiver.JOB_ARCHIVE_LOANS, 0);
+        verify(loanService, times(3)).archiveReturned(argThat(returnedBefore ->
+                returnedBefore.isBefore(Instant.now().minus(364, ChronoUnit.DAYS))), eq(2));
+    }
+
+    @Test
+    @DisplayName("Não deve arquivar quando outra instância estiver arquivando.")
+    public void notClaimedTest() {
+        when(coordinator.claim(eq(LoanArchiver.JOB_ARCHIVE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+
+        assertThat(archiver.archive()).isZero();
+
+        verify(loanService, never()).archiveReturned(any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Deve parar ao fim da janela sem concluir o job.")
+    public void windowOverTest() {
+        ReflectionTestUtils.setField(archiver, "windowMillis", 0L);
+        when(loanService.archiveReturned(any(Instant.class), eq(2))).thenReturn(Arrays.asList(1L, 2L));
+
+        assertThat(archiver.archive()).isEqualTo(2);
+
+        verify(loanService, times(1)).archiveReturned(any(), anyInt());
+        verify(coordinator, never()).complete(any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Deve parar ao perder a concessão do job.")
+    public void leaseLostTest() {
+        when(coordinator.checkpoint(eq(LoanArchiver.JOB_ARCHIVE_LOANS), eq(0), anyLong())).thenReturn(false);
+        when(loanService.archiveReturned(any(Instant.class), eq(2))).thenReturn(Arrays.asList(1L, 2L));
+
+        assertThat(archiver.archive()).isEqualTo(2);
+
+        verify(loanService, times(1)).archiveReturned(any(), anyInt());
+        verify(coordinator, never()).complete(any(), anyInt());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.library.service;
+
+import com.example.library.api.dto.ReturnLoansResultDTO;
+import com.example.library.exception.BusinessException;
+import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest
+public class LoanCheckoutConcurrencyTest {
+    private static final int BOOKS = 4;
+    private static final int CUSTOMERS = 16;
+
+    @Autowired
+    LoanService service;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    List<Book> books;
+
+    @BeforeEach
+    public void setup() {
+        books = bookRepository.saveAll(IntStream.range(0, BOOKS)
+                .mapToObj(i -> Book.builder().title("Livro").author("Autor").isbn("cc-" + i).build())
+                .collect(Collectors.toList()));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.update("delete from outbox_event where loan_id in"
+                + " (select l.id from loan l join book b on b.id = l.id_book where b.isbn like 'cc-%')");
+        jdbcTemplate.update("delete from loan where id_book in (select id from book where isbn like 'cc-%')");
+        jdbcTemplate.update("delete from book where isbn like 'cc-%'");
+    }
+
+    @Test
+    @DisplayName("Deve emprestar cada livro uma única vez sob concorrência.")
+    public void concurrentCheckoutTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CUSTOMERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> attempts = new ArrayList<>();
+        try {
+            for (int customer = 0; customer < CUSTOMERS; customer++) {
+                for (Book book : books) {
+                    String name = "cliente-" + customer;
+                    attempts.add(executor.submit(checkout(start, book.getIsbn(), name)));
+                }
+            }
+            start.countDown();
+
+            long lent = 0;
+            for (Future<Boolean> attempt : attempts) {
+                if (attempt.get()) {
+                    lent++;
+                }
+            }
+            assertThat(lent).isEqualTo(BOOKS);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (Book book : books) {
+            Integer active = jdbcTemplate.queryForObject(
+                    "select count(*) from loan where id_book = ? and returned = false", Integer.class, book.getId());
+            assertThat(active).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Deve devolver cada empréstimo uma única vez sob concorrência.")
+    public void concurrentReturnTest() throws Exception {
+        List<Long> loans = new ArrayList<>();
+        for (Book book : books) {
+            loans.add(service.checkout(book.getIsbn(), "fulano", "fulano@email.com"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(CUSTOMERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ReturnLoansResultDTO>> attempts = new ArrayList<>();
+        try {
+            for (int attempt = 0; attempt < CUSTOMERS; attempt++) {
+                attempts.add(executor.submit(() -> {
+                    start.await();
+                    return service.returnLoans(loans, Collections.emptyList());
+                }));
+            }
+            start.countDown();
+
+            List<Long> returned = new ArrayList<>();
+            for (Future<ReturnLoansResultDTO> attempt : attempts) {
+                ReturnLoansResultDTO result = attempt.get();
+                returned.addAll(result.getReturned());
+                assertThat(result.getReturned().size() + result.getAlreadyReturnedIds().size()).isEqualTo(BOOKS);
+            }
+            assertThat(returned).containsExactlyInAnyOrderElementsOf(loans);
+        } finally {
+            executor.shutdown();
+        }
+
+        Integer events = jdbcTemplate.queryForObject(
+                "select count(*) from outbox_event where type = 'LOAN_RETURNED' and loan_id in ("
+                        + loans.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")", Integer.class);
+        assertThat(events).isEqualTo(BOOKS);
+    }
+
+    private Callable<Boolean> checkout(CountDownLatch start, String isbn, String customer) {
+        return () -> {
+            start.await();
+            try {
+                service.checkout(isbn, customer, customer + "@email.com");
+                return true;
+            } catch (BusinessException ex) {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.library.service;
+
+import com.example.library.config.MetricsConfig;
+import com.example.library.exception.BusinessException;
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.Loan;
+import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.LoanRepository;
+import com.example.library.model.repository.OutboxEventRepository;
+import com.example.library.service.impl.LoanServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(classes = {MetricsConfig.class, LibraryMetrics.class, LoanServiceImpl.class, LoanPolicy.class})
+@ImportAutoConfiguration({AopAutoConfiguration.class, MetricsAutoConfiguration.class, SimpleMetricsExportAutoConfiguration.class})
+public class LoanServiceMetricsTest {
+    @Autowired
+    LoanService service;
+
+    @Autowired
+    MeterRegistry registry;
+
+    @MockBean
+    LoanRepository repository;
+
+    @MockBean
+    BookRepository bookRepository;
+
+    @MockBean
+    CacheManager cacheManager;
+
+    @MockBean
+    OutboxEventRepository outboxRepository;
+
+    @MockBean
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    @DisplayName("Deve medir o tempo do empréstimo e contar o resultado.")
+    public void checkoutMetricsTest() {
+        when(repository.checkout(Mockito.eq("123"), Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenReturn(Optional.of(Loan.builder().id(1L).book(Book.builder().id(1L).isbn("123").build()).build()));
+        when(repository.checkout(Mockito.eq("456"), Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenThrow(new DataIntegrityViolationException("ux_loan_active_book"));
+        double created = count("created");
+        double alreadyLent = count("already_lent");
+
+        service.checkout("123", "fulano", "fulano@email.com");
+        Throwable exception = catchThrowable(() -> service.checkout("456", "fulano", "fulano@email.com"));
+
+        Timer succeeded = registry.get(LibraryMetrics.SERVICE_TIMER).tags("method", "checkout", "exception", "none").timer();
+        Timer failed = registry.get(LibraryMetrics.SERVICE_TIMER).tags("method", "checkout", "exception", "BusinessException").timer();
+        assertThat(exception).isInstanceOf(BusinessException.class);
+        assertThat(succeeded.count()).isEqualTo(1);
+        assertThat(failed.count()).isEqualTo(1);
+        assertThat(count("created") - created).isEqualTo(1);
+        assertThat(count("already_lent") - alreadyLent).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve descartar as métricas da aplicação quando desabilitadas.")
+    public void disabledMetricsTest() {
+        SimpleMeterRegistry disabled = new SimpleMeterRegistry();
+        LibraryMetrics metrics = new LibraryMetrics(disabled, false);
+
+        metrics.loanCreated();
+        metrics.limiterRejected("reads");
+
+        assertThat(disabled.getMeters()).isEmpty();
+    }
+
+    private double count(String outcome) {
+        return registry.get("library.loans.checkout").tag("outcome", outcome).counter().count();
+    }
+}
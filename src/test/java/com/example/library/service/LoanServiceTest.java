@@ -1,10 +1,15 @@
 package com.example.library.service;
 
 import com.example.library.api.dto.LoanFilterDTO;
+import com.example.library.api.dto.ReturnLoansResultDTO;
 import com.example.library.exception.BusinessException;
 import com.example.library.model.entity.Book;
 import com.example.library.model.entity.Loan;
+import com.example.library.model.entity.OutboxEvent;
+import com.example.library.model.repository.BookRepository;
+import com.example.library.model.repository.LoanHistoryRow;
 import com.example.library.model.repository.LoanRepository;
+import com.example.library.model.repository.OutboxEventRepository;
 import com.example.library.service.impl.LoanServiceImpl;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,16 +18,26 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.catchThrowable;
@@ -36,9 +51,21 @@ public class LoanServiceTest {
     @MockBean
     LoanRepository repository;
 
+    @MockBean
+    BookRepository bookRepository;
+
+    @MockBean
+    CacheManager cacheManager;
+
+    @MockBean
+    OutboxEventRepository outboxRepository;
+
+    @MockBean
+    LibraryMetrics metrics;
+
     @BeforeEach
     public void setup() {
-        service = new LoanServiceImpl(repository);
+        service = new LoanServiceImpl(repository, bookRepository, cacheManager, outboxRepository, new LoanPolicy(5), metrics);
     }
 
     @Test
@@ -50,11 +77,14 @@ public class LoanServiceTest {
         savedLoan.setId(1L);
         savedLoan.setLoanDate(savingLoan.getLoanDate());
 
-        when(repository.existsByBookAndNotReturned(savingLoan.getBook())).thenReturn(false);
+        when(bookRepository.existsByIdAndActiveLoanIdIsNotNull(1L)).thenReturn(false);
         when(repository.save(savingLoan)).thenReturn(savedLoan);
 
         Loan loan = service.save(savingLoan);
 
+        verify(bookRepository).markLent(1L, 1L);
+        assertThat(savingLoan.getDueDate()).isEqualTo(savingLoan.getLoanDate().plusDays(5));
+
         assertThat(loan.getId()).isEqualTo(savedLoan.getId());
         assertThat(loan.getBook()).isEqualTo(savedLoan.getBook());
         assertThat(loan.getCustomer()).isEqualTo(savedLoan.getCustomer());
@@ -66,7 +96,7 @@ public class LoanServiceTest {
     public void loanedBookErrorOnCreateLoanTest() {
         Loan savingLoan = createNewLoan();
 
-        when(repository.existsByBookAndNotReturned(savingLoan.getBook())).thenReturn(true);
+        when(bookRepository.existsByIdAndActiveLoanIdIsNotNull(1L)).thenReturn(true);
 
         Throwable exception = catchThrowable(() -> service.save(savingLoan));
 
@@ -77,6 +107,58 @@ public class LoanServiceTest {
         verify(repository, never()).save(savingLoan);
     }
 
+    @Test
+    @DisplayName("Deve realizar o empréstimo pelo isbn.")
+    public void checkoutTest() {
+        when(repository.checkout("123", "fulano", "fulano@email.com", LocalDate.now(), LocalDate.now().plusDays(5)))
+                .thenReturn(Optional.of(Loan.builder().id(1L).book(Book.builder().id(2L).isbn("123").build()).build()));
+
+        Long id = service.checkout("123", "fulano", "fulano@email.com");
+
+        assertThat(id).isEqualTo(1L);
+        verify(outboxRepository).enqueue(OutboxEvent.Type.LOAN_CREATED.name(), Collections.singleton(1L));
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao realizar empréstimo com isbn inexistente.")
+    public void invalidIsbnCheckoutTest() {
+        when(repository.checkout(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+
+        Throwable exception = catchThrowable(() -> service.checkout("123", "fulano", "fulano@email.com"));
+
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Livro não encontrado para o Isbn informado.");
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao realizar empréstimo de livro marcado como emprestado.")
+    public void lentBookCheckoutTest() {
+        when(repository.checkout(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+        when(bookRepository.existsByIsbn("123")).thenReturn(true);
+
+        Throwable exception = catchThrowable(() -> service.checkout("123", "fulano", "fulano@email.com"));
+
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Livro já emprestado.");
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao realizar empréstimo de livro já emprestado.")
+    public void loanedBookCheckoutTest() {
+        when(repository.checkout(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenThrow(new DataIntegrityViolationException("ux_loan_active_book"));
+
+        Throwable exception = catchThrowable(() -> service.checkout("123", "fulano", "fulano@email.com"));
+
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Livro já emprestado.");
+    }
+
     @Test
     @DisplayName("Deve obter as informações de empréstimo por Id.")
     public void getLoanDetailsTest() {
@@ -111,6 +193,143 @@ public class LoanServiceTest {
         assertThat(updatedLoan.getReturned()).isTrue();
 
         verify(repository).save(loan);
+        verify(bookRepository).markAvailable(Collections.singleton(1L));
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao desfazer a devolução de um empréstimo.")
+    public void updateReturnedLoanToActiveTest() {
+        Loan loan = createNewLoan();
+        loan.setId(1L);
+        loan.setReturned(false);
+
+        when(repository.findNotReturnedIds(Collections.singleton(1L))).thenReturn(Collections.emptySet());
+
+        Throwable exception = catchThrowable(() -> service.update(loan));
+
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Empréstimo já devolvido.");
+        verify(repository, never()).save(loan);
+        verify(bookRepository, never()).markAvailable(Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve atualizar um empréstimo ativo que continua ativo.")
+    public void updateActiveLoanTest() {
+        Loan loan = createNewLoan();
+        loan.setId(1L);
+        loan.setReturned(false);
+
+        when(repository.findNotReturnedIds(Collections.singleton(1L))).thenReturn(Collections.singleton(1L));
+        when(repository.save(loan)).thenReturn(loan);
+
+        assertThat(service.update(loan).getReturned()).isFalse();
+
+        verify(bookRepository, never()).markAvailable(Mockito.any());
+        verify(outboxRepository, never()).enqueue(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote, reportando ids e isbns desconhecidos ou já devolvidos.")
+    public void returnLoansTest() {
+        Loan lentByIsbn = createNewLoan();
+        lentByIsbn.setId(3L);
+        lentByIsbn.getBook().setIsbn("123");
+
+        when(repository.findNotReturnedIds(Arrays.asList(1L, 2L, 9L))).thenReturn(new HashSet<>(Arrays.asList(1L)));
+        when(repository.findExistingIds(Arrays.asList(2L, 9L))).thenReturn(new HashSet<>(Arrays.asList(2L)));
+        when(repository.findNotReturnedByBookIsbns(Arrays.asList("123", "456", "789")))
+                .thenReturn(Arrays.asList(lentByIsbn));
+        when(bookRepository.findExistingIsbns(Arrays.asList("456", "789")))
+                .thenReturn(new HashSet<>(Arrays.asList("456")));
+        when(repository.lockNotReturnedIds(new LinkedHashSet<>(Arrays.asList(1L, 3L))))
+                .thenReturn(new HashSet<>(Arrays.asList(1L, 3L)));
+
+        ReturnLoansResultDTO result = service.returnLoans(
+                Arrays.asList(1L, 2L, 9L),
+                Arrays.asList("123", "456", "789"));
+
+        Assertions.assertThat(result.getReturned()).containsExactly(1L, 3L);
+        Assertions.assertThat(result.getAlreadyReturnedIds()).containsExactly(2L);
+        Assertions.assertThat(result.getUnknownIds()).containsExactly(9L);
+        Assertions.assertThat(result.getNotLentIsbns()).containsExactly("456");
+        Assertions.assertThat(result.getUnknownIsbns()).containsExactly("789");
+
+        verify(repository).markReturned(new LinkedHashSet<>(Arrays.asList(1L, 3L)));
+        verify(bookRepository).markAvailable(new LinkedHashSet<>(Arrays.asList(1L, 3L)));
+        verify(outboxRepository).enqueue(OutboxEvent.Type.LOAN_RETURNED.name(), new LinkedHashSet<>(Arrays.asList(1L, 3L)));
+    }
+
+    @Test
+    @DisplayName("Deve reportar como já devolvidos os empréstimos devolvidos por outra requisição durante o lote.")
+    public void concurrentlyReturnedLoansTest() {
+        Loan lentByIsbn = createNewLoan();
+        lentByIsbn.setId(3L);
+        lentByIsbn.getBook().setIsbn("123");
+
+        when(repository.findNotReturnedIds(Arrays.asList(1L, 2L))).thenReturn(new HashSet<>(Arrays.asList(1L, 2L)));
+        when(repository.findNotReturnedByBookIsbns(Collections.singletonList("123")))
+                .thenReturn(Collections.singletonList(lentByIsbn));
+        when(repository.lockNotReturnedIds(new LinkedHashSet<>(Arrays.asList(1L, 2L, 3L))))
+                .thenReturn(new HashSet<>(Collections.singletonList(1L)));
+
+        ReturnLoansResultDTO result = service.returnLoans(Arrays.asList(1L, 2L), Collections.singletonList("123"));
+
+        Assertions.assertThat(result.getReturned()).containsExactly(1L);
+        Assertions.assertThat(result.getAlreadyReturnedIds()).containsExactly(2L);
+        Assertions.assertThat(result.getNotLentIsbns()).containsExactly("123");
+
+        verify(repository).markReturned(Collections.singleton(1L));
+        verify(outboxRepository).enqueue(OutboxEvent.Type.LOAN_RETURNED.name(), Collections.singleton(1L));
+    }
+
+    @Test
+    @DisplayName("Deve exportar os empréstimos filtrados, fechando o stream ao final.")
+    public void exportTest() {
+        Loan loan = createNewLoan();
+        loan.setId(1L);
+        List<Loan> exported = new ArrayList<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        when(repository.streamByBookIsbnOrCustomer("123", null))
+                .thenReturn(Stream.of(loan).onClose(() -> closed.set(true)));
+
+        service.export(LoanFilterDTO.builder().isbn("123").build(), exported::add);
+
+        Assertions.assertThat(exported).containsExactly(loan);
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve registrar o aviso de atraso apenas dos empréstimos ainda não devolvidos.")
+    public void notifyOverdueTest() {
+        when(repository.findNotReturnedIds(Arrays.asList(1L, 2L))).thenReturn(new HashSet<>(Arrays.asList(1L)));
+        when(outboxRepository.enqueue(OutboxEvent.Type.LOAN_OVERDUE.name(), Collections.singleton(1L))).thenReturn(1);
+
+        assertThat(service.notifyOverdue(Arrays.asList(1L, 2L))).isEqualTo(1);
+
+        when(repository.findNotReturnedIds(Collections.singletonList(2L))).thenReturn(Collections.emptySet());
+        assertThat(service.notifyOverdue(Collections.singletonList(2L))).isZero();
+        verify(outboxRepository, times(1)).enqueue(Mockito.eq(OutboxEvent.Type.LOAN_OVERDUE.name()), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve mover para o histórico um lote de empréstimos devolvidos e atualizar a versão dos livros.")
+    public void archiveReturnedTest() {
+        Instant returnedBefore = Instant.now();
+        List<Long> ids = Arrays.asList(1L, 2L);
+        when(repository.findArchivableIds(returnedBefore, PageRequest.of(0, 2))).thenReturn(ids);
+        when(bookRepository.findByLoanIdIn(ids)).thenReturn(Collections.singletonList(Book.builder().id(3L).isbn("123").build()));
+
+        assertThat(service.archiveReturned(returnedBefore, 2)).isEqualTo(ids);
+
+        verify(bookRepository).touch(Collections.singleton(3L));
+        verify(repository).copyToHistory(ids);
+        verify(repository).deleteReturned(ids);
+
+        when(repository.findArchivableIds(returnedBefore, PageRequest.of(0, 2))).thenReturn(Collections.emptyList());
+        assertThat(service.archiveReturned(returnedBefore, 2)).isEqualTo(Collections.emptyList());
+        verify(repository, times(1)).copyToHistory(Mockito.any());
     }
 
     public static Loan createNewLoan() {
@@ -150,4 +369,45 @@ public class LoanServiceTest {
         Assertions.assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
         Assertions.assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos ativos e do histórico, ordenados por id, quando solicitado.")
+    public void findLoanWithHistoryTest() {
+        LoanFilterDTO filter = LoanFilterDTO.builder().isbn("123").customer("fulano").history(true).build();
+
+        LoanHistoryRow row = Mockito.mock(LoanHistoryRow.class);
+        when(row.getId()).thenReturn(1L);
+        when(row.getCustomer()).thenReturn("fulano");
+        when(row.getReturned()).thenReturn(true);
+        when(row.getBookId()).thenReturn(2L);
+        when(row.getIsbn()).thenReturn("123");
+        when(row.getTitle()).thenReturn("As aventuras");
+        Page<LoanHistoryRow> page = new PageImpl<>(Collections.singletonList(row), PageRequest.of(1, 10), 11);
+
+        when(repository.findWithHistoryByBookIsbnOrCustomer("123", "fulano", PageRequest.of(1, 10))).thenReturn(page);
+
+        Page<Loan> result = service.find(filter, PageRequest.of(1, 10, Sort.by("id")));
+
+        Assertions.assertThat(result.getContent()).hasSize(1);
+        Loan loan = result.getContent().get(0);
+        Assertions.assertThat(loan.getId()).isEqualTo(1L);
+        Assertions.assertThat(loan.getReturned()).isTrue();
+        Assertions.assertThat(loan.getBook().getId()).isEqualTo(2L);
+        Assertions.assertThat(loan.getBook().getTitle()).isEqualTo("As aventuras");
+        Assertions.assertThat(result.getTotalElements()).isEqualTo(11);
+        verify(repository, never()).findByBookIsbnOrCustomer(Mockito.anyString(), Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve lançar erro de negócio ao ordenar empréstimos do histórico por outro campo que não o id.")
+    public void findLoanWithHistorySortedTest() {
+        LoanFilterDTO filter = LoanFilterDTO.builder().isbn("123").customer("fulano").history(true).build();
+
+        Throwable exception = Assertions.catchThrowable(() -> service.find(filter, PageRequest.of(0, 10, Sort.by("loanDate"))));
+
+        Assertions.assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Empréstimos do histórico só podem ser ordenados por id.");
+        verify(repository, never()).findWithHistoryByBookIsbnOrCustomer(Mockito.anyString(), Mockito.anyString(), Mockito.any());
+    }
 }
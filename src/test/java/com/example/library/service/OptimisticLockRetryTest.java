@@ -0,0 +1,64 @@
+package com.example.library.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class OptimisticLockRetryTest {
+    OptimisticLockRetry retry;
+
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void setup() {
+        retry = new OptimisticLockRetry(transactionManager, 3, 0);
+    }
+
+    @Test
+    @DisplayName("Deve repetir a operação em nova transação após conflito de versão.")
+    public void retryAfterConflictTest() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retry.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ObjectOptimisticLockingFailureException("Book", 1L);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts.get()).isEqualTo(3);
+        verify(transactionManager, times(3)).getTransaction(any(TransactionDefinition.class));
+        verify(transactionManager, times(2)).rollback(any());
+    }
+
+    @Test
+    @DisplayName("Deve desistir após o número máximo de tentativas.")
+    public void giveUpAfterMaxAttemptsTest() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        Throwable exception = catchThrowable(() -> retry.execute(() -> {
+            attempts.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException("Book", 1L);
+        }));
+
+        assertThat(exception).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.library.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "application.outbox.batch-size=5",
+        "application.outbox.workers=2"
+})
+public class OutboxDispatcherConcurrencyTest {
+    private static final int EVENTS = 40;
+    private static final int DISPATCHERS = 2;
+
+    @Autowired
+    AutowireCapableBeanFactory beanFactory;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    EmailService emailService;
+
+    Queue<String> mailed = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    public void setup() {
+        for (int i = 0; i < EVENTS; i++) {
+            jdbcTemplate.update("insert into outbox_event (type, dedup_key, loan_id, recipient, customer, book_title,"
+                    + " created_at, next_attempt_at) values ('LOAN_CREATED', ?, ?, ?, 'Fulano', 'Livro',"
+                    + " current_timestamp, current_timestamp)", "od-" + i, -i - 1, "od-" + i + "@email.com");
+        }
+        Mockito.doAnswer(invocation -> {
+            mailed.add(invocation.getArgument(2));
+            Thread.sleep(2);
+            return null;
+        }).when(emailService).sendMail(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.update("delete from outbox_event where dedup_key like 'od-%'");
+    }
+
+    @Test
+    @DisplayName("Deve enviar cada evento uma única vez com despachantes concorrentes.")
+    public void concurrentDispatchTest() throws Exception {
+        List<OutboxDispatcher> dispatchers = new ArrayList<>();
+        for (int i = 0; i < DISPATCHERS; i++) {
+            OutboxDispatcher dispatcher = (OutboxDispatcher) beanFactory.autowire(OutboxDispatcher.class,
+                    AutowireCapableBeanFactory.AUTOWIRE_CONSTRUCTOR, false);
+            beanFactory.autowireBean(dispatcher);
+            dispatchers.add(dispatcher);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(DISPATCHERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> rounds = new ArrayList<>();
+        try {
+            for (OutboxDispatcher dispatcher : dispatchers) {
+                rounds.add(executor.submit(() -> {
+                    start.await();
+                    return dispatcher.dispatch();
+                }));
+            }
+            start.countDown();
+
+            int dispatched = 0;
+            for (Future<Integer> round : rounds) {
+                dispatched += round.get();
+            }
+            assertThat(dispatched).isEqualTo(EVENTS);
+        } finally {
+            executor.shutdown();
+            dispatchers.forEach(OutboxDispatcher::shutdown);
+        }
+
+        assertThat(mailed).hasSize(EVENTS).doesNotHaveDuplicates();
+        Integer pending = jdbcTemplate.queryForObject(
+                "select count(*) from outbox_event where dedup_key like 'od-%' and dispatched_at is null", Integer.class);
+        assertThat(pending).isZero();
+    }
+}
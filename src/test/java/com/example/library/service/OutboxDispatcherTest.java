@@ -0,0 +1,170 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.OutboxEvent;
+import com.example.library.model.repository.OutboxEventRepository;
+import com.example.library.service.impl.EmailServiceImpl;
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.mail.MailSenderAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(classes = {OutboxDispatcher.class, EmailServiceImpl.class}, properties = {
+        "spring.mail.host=localhost",
+        "spring.mail.port=3025",
+        "spring.mail.properties.mail.smtp.auth=false",
+        "spring.mail.properties.mail.smtp.starttls.enable=false",
+        "application.outbox.batch-size=2",
+        "application.outbox.max-attempts=3"
+})
+@ImportAutoConfiguration(MailSenderAutoConfiguration.class)
+public class OutboxDispatcherTest {
+    GreenMail smtp;
+
+    @Autowired
+    OutboxDispatcher dispatcher;
+
+    @MockBean
+    OutboxEventRepository repository;
+
+    @MockBean
+    LibraryMetrics metrics;
+
+    @BeforeEach
+    public void startSmtp() {
+        smtp = new GreenMail(ServerSetupTest.SMTP).withConfiguration(GreenMailConfiguration.aConfig().withDisabledAuthentication());
+        smtp.start();
+    }
+
+    @AfterEach
+    public void stopSmtp() {
+        smtp.stop();
+    }
+
+    @Test
+    @DisplayName("Deve enviar um e-mail por evento, em lotes, e marcar os eventos como despachados.")
+    public void dispatchTest() throws Exception {
+        givenDue(Arrays.asList(event(1L, OutboxEvent.Type.LOAN_CREATED, "fulano@email.com"),
+                event(2L, OutboxEvent.Type.LOAN_RETURNED, "ciclano@email.com")));
+        givenDue(Collections.singletonList(event(3L, OutboxEvent.Type.LOAN_CREATED, "beltrano@email.com")));
+        when(repository.findDueIds(Mockito.any(Instant.class), Mockito.eq(3), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(1L, 2L))
+                .thenReturn(Collections.singletonList(3L));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(3);
+
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertThat(received).hasSize(3);
+        assertThat(received).extracting(m -> m.getRecipients(Message.RecipientType.TO)[0].toString())
+                .containsExactlyInAnyOrder("fulano@email.com", "ciclano@email.com", "beltrano@email.com");
+        assertThat(received).extracting(MimeMessage::getSubject)
+                .containsExactlyInAnyOrder("Empréstimo realizado", "Livro devolvido", "Empréstimo realizado");
+        assertThat(received[0].getFrom()[0].toString()).isEqualTo("mail@demo.com");
+        verify(repository).markDispatched(Mockito.eq(Arrays.asList(1L, 2L)), Mockito.any(Instant.class));
+        verify(repository).markDispatched(Mockito.eq(Collections.singletonList(3L)), Mockito.any(Instant.class));
+        verify(repository, never()).retryLater(Mockito.anyLong(), Mockito.any(Instant.class));
+    }
+
+    @Test
+    @DisplayName("Deve reagendar os eventos e encerrar a rodada quando o servidor de e-mail estiver indisponível.")
+    public void smtpUnavailableTest() {
+        smtp.stop();
+        OutboxEvent retried = event(1L, OutboxEvent.Type.LOAN_CREATED, "fulano@email.com");
+        OutboxEvent abandoned = event(2L, OutboxEvent.Type.LOAN_CREATED, "ciclano@email.com");
+        abandoned.setAttempts(2);
+        givenDue(Arrays.asList(retried, abandoned));
+        when(repository.findDueIds(Mockito.any(Instant.class), Mockito.eq(3), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(1L, 2L));
+
+        Instant before = Instant.now();
+        assertThat(dispatcher.dispatch()).isZero();
+
+        verify(repository, times(1)).findDueIds(Mockito.any(Instant.class), Mockito.anyInt(), Mockito.any(Pageable.class));
+        verify(repository).retryLater(Mockito.eq(1L), Mockito.argThat(next -> next.isAfter(before.plusMillis(900))));
+        verify(repository).retryLater(Mockito.eq(2L), Mockito.argThat(next -> next.isAfter(before.plusMillis(3900))));
+        verify(repository, never()).markDispatched(Mockito.any(), Mockito.any(Instant.class));
+    }
+
+    @Test
+    @DisplayName("Deve enviar somente os eventos reservados por esta instância.")
+    public void claimedElsewhereTest() throws Exception {
+        when(repository.findDueIds(Mockito.any(Instant.class), Mockito.eq(3), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(1L, 2L))
+                .thenReturn(Collections.emptyList());
+        when(repository.claim(Mockito.eq(Arrays.asList(1L, 2L)), Mockito.anyString(), Mockito.any(Instant.class),
+                Mockito.any(Instant.class), Mockito.eq(3))).thenReturn(1);
+        when(repository.findClaimed(Mockito.eq(Arrays.asList(1L, 2L)), Mockito.anyString()))
+                .thenReturn(Collections.singletonList(event(2L, OutboxEvent.Type.LOAN_CREATED, "ciclano@email.com")));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(1);
+
+        assertThat(smtp.getReceivedMessages()).hasSize(1);
+        verify(repository).markDispatched(Mockito.eq(Collections.singletonList(2L)), Mockito.any(Instant.class));
+    }
+
+    @Test
+    @DisplayName("Deve enviar a mensagem de atraso registrada no evento sem alterá-la.")
+    public void lateMailTest() throws Exception {
+        OutboxEvent late = event(1L, OutboxEvent.Type.LOAN_LATE, "fulano@email.com");
+        late.setMessage("Fulano, devolva \"As aventuras\", atrasado há 3 dia(s).");
+        givenDue(Collections.singletonList(late));
+        when(repository.findDueIds(Mockito.any(Instant.class), Mockito.eq(3), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(1L));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(1);
+
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertThat(received).hasSize(1);
+        assertThat(received[0].getSubject()).isEqualTo("Livro com empréstimo atrasado");
+        assertThat(received[0].getContent().toString().trim()).isEqualTo(late.getMessage());
+    }
+
+    private void givenDue(List<OutboxEvent> events) {
+        List<Long> ids = events.stream().map(OutboxEvent::getId).collect(Collectors.toList());
+        when(repository.claim(Mockito.eq(ids), Mockito.anyString(), Mockito.any(Instant.class),
+                Mockito.argThat(leaseUntil -> leaseUntil.isAfter(Instant.now().plusSeconds(30))), Mockito.eq(3)))
+                .thenReturn(ids.size());
+        when(repository.findClaimed(Mockito.eq(ids), Mockito.anyString())).thenReturn(events);
+    }
+
+    private static OutboxEvent event(Long id, OutboxEvent.Type type, String recipient) {
+        return OutboxEvent.builder()
+                .id(id)
+                .type(type)
+                .dedupKey(type + ":" + id)
+                .loanId(id)
+                .recipient(recipient)
+                .customer("Fulano")
+                .bookTitle("As aventuras")
+                .attempts(0)
+                .build();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.library.service;
+
+import com.example.library.model.repository.LoanDueDate;
+import com.example.library.model.repository.LoanRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class OverdueTrackerTest {
+    OverdueTracker tracker;
+
+    @MockBean
+    LoanRepository repository;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    LibraryMetrics metrics;
+
+    @BeforeEach
+    public void setup() {
+        tracker = new OverdueTracker(repository, loanService, metrics, 2, 60_000);
+        when(repository.findDueDatesChangedAfter(any(Instant.class), anyLong(), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        when(loanService.notifyOverdue(any())).thenAnswer(invocation -> ((Collection<?>) invocation.getArgument(0)).size());
+    }
+
+    @Test
+    @DisplayName("Não deve notificar antes de carregar os vencimentos do banco.")
+    public void notRebuiltTest() {
+        assertThat(tracker.poll()).isZero();
+
+        verify(repository, never()).findDueDatesChangedAfter(any(Instant.class), anyLong(), any(Pageable.class));
+        verify(loanService, never()).notifyOverdue(any());
+    }
+
+    @Test
+    @DisplayName("Deve carregar os vencimentos em lotes e notificar cada empréstimo uma vez, ao vencer.")
+    public void rebuildAndPollTest() {
+        LocalDate today = LocalDate.now();
+        when(repository.findActiveDueDatesAfter(eq(0L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(due(1L, today.plusDays(1), false), due(2L, today.minusDays(2), false)));
+        when(repository.findActiveDueDatesAfter(eq(2L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(due(3L, today, false)));
+        when(repository.findActiveDueDatesAfter(eq(3L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        tracker.rebuild();
+        assertThat(tracker.size()).isEqualTo(3);
+
+        assertThat(tracker.poll()).isEqualTo(2);
+        verify(loanService).notifyOverdue(Arrays.asList(2L, 3L));
+        assertThat(tracker.size()).isEqualTo(1);
+
+        assertThat(tracker.poll()).isZero();
+        verify(loanService, times(1)).notifyOverdue(any());
+    }
+
+    @Test
+    @DisplayName("Deve acompanhar empréstimos criados e devolvidos desde a última consulta.")
+    public void syncTest() {
+        LocalDate today = LocalDate.now();
+        when(repository.findActiveDueDatesAfter(eq(0L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(due(1L, today.minusDays(1), false)));
+        when(repository.findActiveDueDatesAfter(eq(1L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        tracker.rebuild();
+
+        when(repository.findDueDatesChangedAfter(any(Instant.class), eq(0L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(due(1L, today.minusDays(1), true), due(4L, today, false)));
+        when(repository.findDueDatesChangedAfter(any(Instant.class), eq(4L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        assertThat(tracker.poll()).isEqualTo(1);
+        verify(loanService).notifyOverdue(Collections.singletonList(4L));
+        assertThat(tracker.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve manter os empréstimos vencidos para a próxima consulta quando a notificação falhar.")
+    public void notifyFailureTest() {
+        when(repository.findActiveDueDatesAfter(eq(0L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(due(1L, LocalDate.now().minusDays(1), false)));
+        when(repository.findActiveDueDatesAfter(eq(1L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        tracker.rebuild();
+        doThrow(new IllegalStateException("indisponível")).doReturn(1).when(loanService).notifyOverdue(any());
+
+        assertThat(tracker.poll()).isZero();
+        assertThat(tracker.size()).isEqualTo(1);
+        assertThat(tracker.poll()).isEqualTo(1);
+        verify(loanService, times(2)).notifyOverdue(Collections.singletonList(1L));
+    }
+
+    private static LoanDueDate due(Long id, LocalDate dueDate, boolean returned) {
+        return new LoanDueDate() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public LocalDate getDueDate() {
+                return dueDate;
+            }
+
+            @Override
+            public Boolean getReturned() {
+                return returned;
+            }
+        };
+    }
+}
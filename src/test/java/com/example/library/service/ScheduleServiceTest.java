@@ -0,0 +1,181 @@
+package com.example.library.service;
+
+import com.example.library.model.entity.Book;
+import com.example.library.model.entity.JobPartition;
+import com.example.library.model.entity.Loan;
+import com.example.library.service.mail.MailEngine;
+import com.example.library.service.mail.OutgoingMail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class ScheduleServiceTest {
+    ScheduleService service;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    MailEngine mailEngine;
+
+    @MockBean
+    JobCoordinator coordinator;
+
+    @BeforeEach
+    public void setup() {
+        service = new ScheduleService(loanService, bookService, mailEngine, coordinator);
+        ReflectionTestUtils.setField(service, "subject", "Atraso");
+        ReflectionTestUtils.setField(service, "message", "{customer}, devolva \"{book}\", atrasado há {days} dia(s).");
+        ReflectionTestUtils.setField(service, "chunkSize", 2);
+        ReflectionTestUtils.setField(service, "partitions", 2);
+        service.compileTemplates();
+        when(coordinator.checkpoint(eq(ScheduleService.JOB_LATE_LOANS), anyInt(), anyLong())).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Deve enviar um e-mail por empréstimo atrasado das partições obtidas, em lotes, registrando o progresso.")
+    public void sendMailToLateLoansTest() {
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.of(partition(0, 0L)));
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), eq(1), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+        when(loanService.getLateLoans(0, 2, 0L, 2)).thenReturn(Arrays.asList(createLateLoan(2L), createLateLoan(4L)));
+        when(loanService.getLateLoans(0, 2, 4L, 2)).thenReturn(Collections.singletonList(createLateLoan(6L)));
+        when(loanService.getLateLoans(0, 2, 6L, 2)).thenReturn(Collections.emptyList());
+
+        service.sendMailToLateLoans();
+
+        verify(coordinator).plan(ScheduleService.JOB_LATE_LOANS, 2);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<OutgoingMail>> mails = ArgumentCaptor.forClass((Class) List.class);
+        verify(mailEngine, times(2)).send(mails.capture());
+        assertThat(mails.getAllValues()).flatExtracting(m -> m).hasSize(3)
+                .extracting(OutgoingMail::getRecipient)
+                .containsExactly("cliente2@email.com", "cliente4@email.com", "cliente6@email.com");
+        OutgoingMail last = mails.getValue().get(0);
+        assertThat(last.getSubject()).isEqualTo("Atraso");
+        assertThat(last.getText()).isEqualTo("cliente6, devolva \"Livro 6\", atrasado há 5 dia(s).");
+
+        verify(coordinator).checkpoint(ScheduleService.JOB_LATE_LOANS, 0, 4L);
+        verify(coordinator).checkpoint(ScheduleService.JOB_LATE_LOANS, 0, 6L);
+        verify(coordinator).complete(ScheduleService.JOB_LATE_LOANS, 0);
+        verify(coordinator, never()).complete(ScheduleService.JOB_LATE_LOANS, 1);
+        verify(loanService, never()).getLateLoans(eq(1), anyInt(), anyLong(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Deve registrar no outbox os e-mails não enviados antes de registrar o progresso.")
+    public void failedMailsTest() {
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), anyInt(), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.of(partition(0, 0L)));
+        when(loanService.getLateLoans(0, 2, 0L, 2)).thenReturn(Arrays.asList(createLateLoan(2L), createLateLoan(4L)));
+        when(loanService.getLateLoans(0, 2, 4L, 2)).thenReturn(Collections.emptyList());
+        when(mailEngine.send(Mockito.any())).thenAnswer(invocation -> {
+            List<OutgoingMail> mails = invocation.getArgument(0);
+            return Collections.singletonList(mails.get(1));
+        });
+        when(loanService.enqueueLateMails(any(LocalDate.class), Mockito.anyMap())).thenReturn(1);
+
+        service.sendMailToLateLoans();
+
+        InOrder inOrder = Mockito.inOrder(loanService, coordinator);
+        inOrder.verify(loanService).enqueueLateMails(LocalDate.now(),
+                Collections.singletonMap(4L, "cliente4, devolva \"Livro 4\", atrasado há 5 dia(s)."));
+        inOrder.verify(coordinator).checkpoint(ScheduleService.JOB_LATE_LOANS, 0, 4L);
+        verify(coordinator).complete(ScheduleService.JOB_LATE_LOANS, 0);
+    }
+
+    @Test
+    @DisplayName("Deve retomar uma partição abandonada a partir do último empréstimo registrado.")
+    public void resumeLateLoansTest() {
+        when(coordinator.reclaim(eq(ScheduleService.JOB_LATE_LOANS), eq(1), any(LocalDate.class)))
+                .thenReturn(Optional.of(partition(1, 3L)));
+        when(coordinator.reclaim(eq(ScheduleService.JOB_LATE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+        when(loanService.getLateLoans(1, 2, 3L, 2)).thenReturn(Collections.singletonList(createLateLoan(5L)));
+        when(loanService.getLateLoans(1, 2, 5L, 2)).thenReturn(Collections.emptyList());
+
+        service.resumeLateLoans();
+
+        verify(coordinator, never()).plan(anyString(), anyInt());
+        verify(coordinator, never()).claim(anyString(), anyInt(), any(LocalDate.class));
+        verify(loanService, never()).getLateLoans(1, 2, 0L, 2);
+        verify(mailEngine, times(1)).send(Mockito.argThat(mails -> mails.size() == 1
+                && mails.get(0).getRecipient().equals("cliente5@email.com")));
+        verify(coordinator).complete(ScheduleService.JOB_LATE_LOANS, 1);
+    }
+
+    @Test
+    @DisplayName("Deve interromper a partição, sem concluí-la, quando a concessão tiver sido perdida.")
+    public void leaseLostTest() {
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), anyInt(), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), eq(0), any(LocalDate.class)))
+                .thenReturn(Optional.of(partition(0, 0L)));
+        when(coordinator.checkpoint(ScheduleService.JOB_LATE_LOANS, 0, 4L)).thenReturn(false);
+        when(loanService.getLateLoans(0, 2, 0L, 2)).thenReturn(Arrays.asList(createLateLoan(2L), createLateLoan(4L)));
+
+        service.sendMailToLateLoans();
+
+        verify(loanService, never()).getLateLoans(0, 2, 4L, 2);
+        verify(coordinator, never()).complete(anyString(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Não deve enviar e-mails quando nenhuma partição puder ser obtida.")
+    public void nothingToClaimTest() {
+        when(coordinator.claim(eq(ScheduleService.JOB_LATE_LOANS), anyInt(), any(LocalDate.class)))
+                .thenReturn(Optional.empty());
+
+        service.sendMailToLateLoans();
+
+        verify(loanService, never()).getLateLoans(anyInt(), anyInt(), anyLong(), anyInt());
+        verify(mailEngine, never()).send(Mockito.any());
+    }
+
+    private JobPartition partition(int partition, Long lastId) {
+        return JobPartition.builder()
+                .job(ScheduleService.JOB_LATE_LOANS)
+                .partition(partition)
+                .runDate(LocalDate.now())
+                .lastId(lastId)
+                .completed(false)
+                .build();
+    }
+
+    private Loan createLateLoan(Long id) {
+        Book book = Book.builder().id(id).title("Livro " + id).build();
+        return Loan.builder()
+                .id(id)
+                .book(book)
+                .customer("cliente" + id)
+                .customerEmail("cliente" + id + "@email.com")
+                .loanDate(LocalDate.now().minusDays(10))
+                .dueDate(LocalDate.now().minusDays(5))
+                .build();
+    }
+}
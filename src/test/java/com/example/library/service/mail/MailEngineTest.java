@@ -0,0 +1,130 @@
+package com.example.library.service.mail;
+
+import com.example.library.service.LibraryMetrics;
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.mail.MailSenderAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(classes = MailEngine.class, properties = {
+        "spring.mail.host=localhost",
+        "spring.mail.port=3025",
+        "spring.mail.properties.mail.smtp.auth=false",
+        "spring.mail.properties.mail.smtp.starttls.enable=false",
+        "application.mail.engine.connections=2",
+        "application.mail.engine.rate-per-second=50"
+})
+@ImportAutoConfiguration(MailSenderAutoConfiguration.class)
+public class MailEngineTest {
+    GreenMail smtp;
+
+    @Autowired
+    MailEngine engine;
+
+    @MockBean
+    LibraryMetrics metrics;
+
+    @BeforeEach
+    public void startSmtp() {
+        smtp = new GreenMail(ServerSetupTest.SMTP).withConfiguration(GreenMailConfiguration.aConfig().withDisabledAuthentication());
+        smtp.start();
+    }
+
+    @AfterEach
+    public void stopSmtp() {
+        smtp.stop();
+    }
+
+    @Test
+    @DisplayName("Deve enviar uma mensagem por destinatário, sem expor os demais endereços.")
+    public void sendTest() throws Exception {
+        List<OutgoingMail> mails = Arrays.asList(
+                new OutgoingMail("fulano@email.com", "Atraso", "Fulano, devolva o livro."),
+                new OutgoingMail("ciclano@email.com", "Atraso", "Ciclano, devolva o livro."));
+
+        assertThat(engine.send(mails)).isEmpty();
+
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertThat(received).hasSize(2);
+        for (MimeMessage message : received) {
+            assertThat(message.getRecipients(Message.RecipientType.TO)).hasSize(1);
+            assertThat(message.getFrom()[0].toString()).isEqualTo("mail@demo.com");
+            String recipient = message.getRecipients(Message.RecipientType.TO)[0].toString();
+            assertThat(((String) message.getContent()).trim())
+                    .startsWith(recipient.startsWith("fulano") ? "Fulano" : "Ciclano");
+        }
+        assertThat(engine.getThroughput()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Deve limitar a taxa de envio somando todas as conexões.")
+    public void throttleTest() {
+        List<OutgoingMail> mails = IntStream.range(0, 11)
+                .mapToObj(i -> new OutgoingMail("cliente" + i + "@email.com", "Atraso", "Devolva o livro."))
+                .collect(Collectors.toList());
+
+        long start = System.nanoTime();
+        assertThat(engine.send(mails)).isEmpty();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(smtp.getReceivedMessages()).hasSize(11);
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(190);
+        assertThat(engine.getThroughput()).isLessThanOrEqualTo(55);
+    }
+
+    @Test
+    @DisplayName("Deve devolver e contar como falha as mensagens que o servidor não aceitou.")
+    public void smtpUnavailableTest() {
+        smtp.stop();
+
+        OutgoingMail mail = new OutgoingMail("fulano@email.com", "Atraso", "Devolva o livro.");
+
+        assertThat(engine.send(Collections.singletonList(mail))).containsExactly(mail);
+    }
+
+    @Test
+    @DisplayName("Deve devolver como falha a mensagem sem destinatário e enviar as demais.")
+    public void missingRecipientTest() {
+        OutgoingMail missing = new OutgoingMail(null, "Atraso", "Devolva o livro.");
+        List<OutgoingMail> mails = Arrays.asList(missing,
+                new OutgoingMail("fulano@email.com", "Atraso", "Fulano, devolva o livro."));
+
+        assertThat(engine.send(mails)).containsExactly(missing);
+        assertThat(smtp.getReceivedMessages()).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Deve reservar os envios em intervalos iguais, sem acumular folga quando ocioso.")
+    public void reserveTest() {
+        MailThrottle throttle = new MailThrottle(10);
+        long now = System.nanoTime() + 1_000_000_000L;
+
+        assertThat(throttle.reserve(now)).isZero();
+        assertThat(throttle.reserve(now)).isEqualTo(100_000_000L);
+        assertThat(throttle.reserve(now + 50_000_000L)).isEqualTo(150_000_000L);
+        assertThat(throttle.reserve(now + 5_000_000_000L)).isZero();
+    }
+}
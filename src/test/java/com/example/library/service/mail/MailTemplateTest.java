@@ -0,0 +1,41 @@
+package com.example.library.service.mail;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MailTemplateTest {
+
+    @Test
+    @DisplayName("Deve preencher as variáveis do modelo com os valores de cada destinatário.")
+    public void renderTest() {
+        MailTemplate template = MailTemplate.compile("{customer}, devolva \"{book}\" ({days} dias, {customer}).",
+                "customer", "book", "days");
+        Map<String, Object> values = new HashMap<>();
+        values.put("customer", "Fulano");
+        values.put("book", "As aventuras");
+        values.put("days", 3L);
+
+        assertThat(template.render(values)).isEqualTo("Fulano, devolva \"As aventuras\" (3 dias, Fulano).");
+    }
+
+    @Test
+    @DisplayName("Deve manter textos sem variáveis e deixar em branco variáveis sem valor.")
+    public void renderWithoutValuesTest() {
+        assertThat(MailTemplate.compile("Sem variáveis.").render(new HashMap<>())).isEqualTo("Sem variáveis.");
+        assertThat(MailTemplate.compile("Olá, {customer}!", "customer").render(new HashMap<>())).isEqualTo("Olá, !");
+    }
+
+    @Test
+    @DisplayName("Deve rejeitar ao compilar um modelo com variável desconhecida.")
+    public void unknownVariableTest() {
+        assertThatThrownBy(() -> MailTemplate.compile("Olá, {cliente}!", "customer"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown template variable: cliente");
+    }
+}
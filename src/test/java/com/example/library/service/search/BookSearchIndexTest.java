@@ -0,0 +1,165 @@
+package com.example.library.service.search;
+
+import com.example.library.api.dto.BookSuggestionDTO;
+import com.example.library.model.entity.Book;
+import com.example.library.model.repository.BookRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class BookSearchIndexTest {
+    BookSearchIndex index;
+
+    @MockBean
+    BookRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        index = new BookSearchIndex(repository);
+        index.index(book(1L, "O Senhor dos Anéis", "J. R. R. Tolkien"));
+        index.index(book(2L, "O Hobbit", "J. R. R. Tolkien"));
+        index.index(book(3L, "Tolkien: uma biografia", "Humphrey Carpenter"));
+        index.index(book(4L, "Duna", "Frank Herbert"));
+    }
+
+    @Test
+    @DisplayName("Deve normalizar acentos e caixa ao separar os termos.")
+    public void tokenizeTest() {
+        assertThat(BookSearchIndex.tokenize("O Senhor dos ANÉIS, vol. 1")).containsExactly("o", "senhor", "dos", "aneis", "vol", "1");
+        assertThat(BookSearchIndex.tokenize("  ")).isEmpty();
+        assertThat(BookSearchIndex.tokenize(null)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve ordenar por relevância, com termos do título pesando mais que os do autor.")
+    public void rankingTest() {
+        Page<Long> result = index.search("tolkien", PageRequest.of(0, 10));
+
+        assertThat(result.getContent()).containsExactly(3L, 1L, 2L);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve exigir todos os termos e aceitar prefixo no último.")
+    public void allTermsAndPrefixTest() {
+        assertThat(index.search("tolkien hob", PageRequest.of(0, 10)).getContent()).containsExactly(2L);
+        assertThat(index.search("aneis", PageRequest.of(0, 10)).getContent()).containsExactly(1L);
+        assertThat(index.search("hob tolkien", PageRequest.of(0, 10)).getContent()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve paginar o resultado mantendo o total.")
+    public void pagingTest() {
+        Pageable secondPage = PageRequest.of(1, 2);
+
+        Page<Long> result = index.search("tolkien", secondPage);
+
+        assertThat(result.getContent()).containsExactly(2L);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve substituir os termos ao atualizar e descartá-los ao remover.")
+    public void updateAndRemoveTest() {
+        index.index(book(4L, "Duna Messias", "Frank Herbert"));
+        index.remove(1L);
+
+        assertThat(index.search("messias", PageRequest.of(0, 10)).getContent()).containsExactly(4L);
+        assertThat(index.search("senhor", PageRequest.of(0, 10)).getContent()).isEmpty();
+        assertThat(index.search("tolkien", PageRequest.of(0, 10)).getContent()).containsExactly(3L, 2L);
+    }
+
+    @Test
+    @DisplayName("Deve sugerir títulos e autores, acompanhando as alterações dos livros.")
+    public void suggestTest() {
+        assertThat(index.suggest("tol", 10)).extracting(BookSuggestionDTO::getText)
+                .containsExactly("J. R. R. Tolkien", "Tolkien: uma biografia");
+        assertThat(index.suggest("tol", 10).get(0).getBooks()).isEqualTo(2);
+
+        index.index(book(3L, "Biografia", "Humphrey Carpenter"));
+
+        assertThat(index.suggest("tol", 10)).extracting(BookSuggestionDTO::getText)
+                .containsExactly("J. R. R. Tolkien");
+        assertThat(index.suggest("bio", 10)).extracting(BookSuggestionDTO::getField)
+                .containsExactly("title");
+    }
+
+    @Test
+    @DisplayName("Deve aplicar alterações somente após o commit da transação.")
+    public void afterCommitTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.index(book(5L, "Fundação", "Isaac Asimov"));
+
+            assertThat(index.search("fundacao", PageRequest.of(0, 10)).getContent()).isEmpty();
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(index.search("fundacao", PageRequest.of(0, 10)).getContent()).containsExactly(5L);
+    }
+
+    @Test
+    @DisplayName("Deve reconstruir o índice a partir da base.")
+    public void rebuildTest() {
+        when(repository.findByIdGreaterThan(Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Arrays.asList(book(10L, "Duna", "Frank Herbert")), PageRequest.of(0, 1), true));
+        when(repository.findByIdGreaterThan(Mockito.eq(10L), Mockito.any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Collections.singletonList(book(11L, "Fundação", "Isaac Asimov"))));
+
+        index.rebuild();
+
+        assertThat(index.search("tolkien", PageRequest.of(0, 10)).getContent()).isEmpty();
+        assertThat(index.search("duna", PageRequest.of(0, 10)).getContent()).containsExactly(10L);
+        assertThat(index.search("asimov", PageRequest.of(0, 10)).getContent()).containsExactly(11L);
+    }
+
+    @Test
+    @DisplayName("Deve acompanhar os livros alterados em outras instâncias.")
+    public void syncTest() {
+        when(repository.findByIdGreaterThan(Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Arrays.asList(book(10L, "Duna", "Frank Herbert"))));
+        index.rebuild();
+        when(repository.findChangedAfter(Mockito.any(Instant.class), Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(book(10L, "Duna", "Frank Herbert"), book(11L, "Fundação", "Isaac Asimov")));
+        when(repository.findChangedAfter(Mockito.any(Instant.class), Mockito.eq(11L), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        assertThat(index.sync()).isEqualTo(1);
+        assertThat(index.search("asimov", PageRequest.of(0, 10)).getContent()).containsExactly(11L);
+        assertThat(index.search("duna", PageRequest.of(0, 10)).getContent()).containsExactly(10L);
+    }
+
+    @Test
+    @DisplayName("Não deve sincronizar antes de carregar o índice da base.")
+    public void notRebuiltSyncTest() {
+        assertThat(index.sync()).isZero();
+        Mockito.verify(repository, Mockito.never()).findChangedAfter(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    private static Book book(Long id, String title, String author) {
+        return Book.builder().id(id).title(title).author(author).isbn("isbn-" + id).build();
+    }
+}
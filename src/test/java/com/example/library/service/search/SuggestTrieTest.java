@@ -0,0 +1,191 @@
+package com.example.library.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SuggestTrieTest {
+    SuggestTrie trie;
+
+    @BeforeEach
+    public void setup() {
+        trie = new SuggestTrie(3);
+        trie.add("title", "O Senhor dos Anéis");
+        trie.add("title", "O Hobbit");
+        trie.add("title", "O Hobbit");
+        trie.add("title", "Senhora");
+        trie.add("author", "J. R. R. Tolkien");
+    }
+
+    @Test
+    @DisplayName("Deve completar pelo início do texto, ordenando pela quantidade de livros.")
+    public void completeTest() {
+        assertThat(texts(trie.complete("o", 10))).containsExactly("O Hobbit", "O Senhor dos Anéis");
+        assertThat(texts(trie.complete("sen", 10))).containsExactly("O Senhor dos Anéis", "Senhora");
+        assertThat(trie.complete("o h", 10).get(0).books).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve completar pelo início de palavras com ao menos três letras.")
+    public void wordCompletionTest() {
+        assertThat(texts(trie.complete("aneis", 10))).containsExactly("O Senhor dos Anéis");
+        assertThat(texts(trie.complete("tolk", 10))).containsExactly("J. R. R. Tolkien");
+        assertThat(trie.complete("r r tolkien", 10)).isEmpty();
+        assertThat(trie.complete("xyz", 10)).isEmpty();
+        assertThat(trie.complete("", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve decrementar e remover sugestões sem afetar as demais.")
+    public void removeTest() {
+        trie.remove("title", "O Hobbit");
+        assertThat(trie.complete("hob", 10).get(0).books).isEqualTo(1);
+
+        trie.remove("title", "O Hobbit");
+        trie.remove("title", "Senhora");
+
+        assertThat(trie.complete("hob", 10)).isEmpty();
+        assertThat(texts(trie.complete("sen", 10))).containsExactly("O Senhor dos Anéis");
+        assertThat(texts(trie.complete("o", 10))).containsExactly("O Senhor dos Anéis");
+        assertThat(trie.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve retornar as mesmas sugestões que uma busca exaustiva, após remoções e novas inclusões.")
+    public void matchesExhaustiveSearchTest() {
+        Random random = new Random(42);
+        String[] words = {"casa", "caso", "castelo", "dom", "dona", "dourado", "mar", "marte", "mario"};
+        SuggestTrie loaded = new SuggestTrie(5);
+        SuggestTrie incremental = new SuggestTrie(5);
+        Map<String, Integer> expected = new HashMap<>();
+        List<String> texts = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            String text = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            texts.add(text);
+            loaded.load("title", text);
+            incremental.add("title", text);
+            expected.merge(text, 1, Integer::sum);
+        }
+        loaded.rankAll();
+        for (int i = 0; i < 200; i++) {
+            String text = texts.get(i);
+            loaded.remove("title", text);
+            incremental.remove("title", text);
+            expected.computeIfPresent(text, (key, books) -> books == 1 ? null : books - 1);
+        }
+        for (int i = 0; i < 100; i++) {
+            String text = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            loaded.add("title", text);
+            incremental.add("title", text);
+            expected.merge(text, 1, Integer::sum);
+        }
+
+        for (String prefix : new String[]{"c", "ca", "cas", "casa m", "d", "do", "mar", "mari", "caso dona"}) {
+            List<String> exhaustive = expected.entrySet()
+                    .stream()
+                    .filter(e -> e.getKey().startsWith(prefix) || e.getKey().contains(" " + prefix))
+                    .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(5)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+
+            assertThat(texts(loaded.complete(prefix, 5))).as(prefix).isEqualTo(exhaustive);
+            assertThat(texts(incremental.complete(prefix, 5))).as(prefix).isEqualTo(exhaustive);
+        }
+    }
+
+    @Test
+    @DisplayName("Deve manter as sugestões mais frequentes corretas ao remover textos de várias palavras.")
+    public void removeMultiWordTest() {
+        SuggestTrie small = new SuggestTrie(2);
+        small.add("title", "abcd");
+        small.add("title", "aba abcd");
+        small.add("title", "abd");
+        small.add("title", "aba xyz abc");
+        small.remove("title", "aba xyz abc");
+
+        assertThat(texts(small.complete("a", 2))).containsExactly("aba abcd", "abcd");
+    }
+
+    @Test
+    @DisplayName("Deve coincidir com uma busca exaustiva em inclusões e remoções aleatórias.")
+    public void randomAddRemoveTest() {
+        String[] words = {"a", "ab", "aba", "abc", "abcd", "abd", "xyz", "xy", "bab", "abab"};
+        String[] fields = {"title", "author"};
+        String[] prefixes = {"a", "ab", "aba", "abc", "abd", "b", "ba", "x", "xyz", "aba a", "ab a", "abc x"};
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int capacity = 1 + random.nextInt(3);
+            SuggestTrie trie = new SuggestTrie(capacity);
+            Map<String, Integer> expected = new HashMap<>();
+            List<String> added = new ArrayList<>();
+
+            for (int step = 0; step < 60; step++) {
+                if (!added.isEmpty() && random.nextInt(3) == 0) {
+                    String key = added.remove(random.nextInt(added.size()));
+                    int colon = key.indexOf(':');
+                    trie.remove(key.substring(0, colon), key.substring(colon + 1));
+                    expected.computeIfPresent(key, (k, books) -> books == 1 ? null : books - 1);
+                } else {
+                    StringBuilder text = new StringBuilder(words[random.nextInt(words.length)]);
+                    for (int n = random.nextInt(3); n > 0; n--) {
+                        text.append(' ').append(words[random.nextInt(words.length)]);
+                    }
+                    String key = fields[random.nextInt(fields.length)] + ':' + text;
+                    int colon = key.indexOf(':');
+                    trie.add(key.substring(0, colon), key.substring(colon + 1));
+                    added.add(key);
+                    expected.merge(key, 1, Integer::sum);
+                }
+
+                for (String prefix : prefixes) {
+                    List<String> exhaustive = expected.entrySet()
+                            .stream()
+                            .filter(e -> matches(e.getKey().substring(e.getKey().indexOf(':') + 1), prefix))
+                            .sorted(Comparator.<Map.Entry<String, Integer>>comparingInt(Map.Entry::getValue).reversed()
+                                    .thenComparing(e -> e.getKey().substring(e.getKey().indexOf(':') + 1))
+                                    .thenComparing(e -> e.getKey().substring(0, e.getKey().indexOf(':'))))
+                            .limit(capacity)
+                            .map(Map.Entry::getKey)
+                            .collect(Collectors.toList());
+                    List<String> completed = trie.complete(prefix, capacity)
+                            .stream()
+                            .map(suggestion -> suggestion.field + ':' + suggestion.text)
+                            .collect(Collectors.toList());
+
+                    assertThat(completed).as("seed %d, step %d, prefix %s", seed, step, prefix).isEqualTo(exhaustive);
+                }
+            }
+        }
+    }
+
+    private static boolean matches(String text, String prefix) {
+        if (text.startsWith(prefix)) {
+            return true;
+        }
+        for (int i = text.indexOf(' '); i >= 0; i = text.indexOf(' ', i + 1)) {
+            int next = text.indexOf(' ', i + 1);
+            int length = (next < 0 ? text.length() : next) - i - 1;
+            if (length >= SuggestTrie.MIN_WORD_LENGTH && text.startsWith(prefix, i + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> texts(List<SuggestTrie.Suggestion> suggestions) {
+        return suggestions.stream().map(s -> s.text).collect(Collectors.toList());
+    }
+}